@@ -0,0 +1,66 @@
+package com.vip;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the woven prepareStatement adds to every prepared statement: "baseline" returns the driver's statement as an
+ * unwoven driver does, "off" and "on" go through {@link AgentSwitch#wrap} with the switch in that state. Each
+ * statement is closed again, the driver's close() being a no-op. Off should be within noise of the baseline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AgentSwitchBenchmark {
+
+    private static final String SQL = "select * from orders where customer_id = ? and status = ?";
+
+    @Param({"baseline", "off", "on"})
+    public String mode;
+
+    private PreparedStatement driverStatement;
+    private boolean baseline;
+
+    @Setup
+    public void setUp() {
+        driverStatement = (PreparedStatement) Proxy.newProxyInstance(AgentSwitchBenchmark.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return null;
+                    }
+                });
+        baseline = "baseline".equals(mode);
+        AgentSwitch.setEnabled("on".equals(mode));
+    }
+
+    /**
+     * Closed as the application would, an unclosed proxy would be reported as a leak by the StatementTracker.
+     */
+    @Benchmark
+    public PreparedStatement prepareStatement() throws SQLException {
+        // the same branch in every mode, JMH forks a new JVM per mode so it is always predicted
+        PreparedStatement statement = baseline ? driverStatement : AgentSwitch.wrap(SQL, driverStatement);
+        statement.close();
+        return statement;
+    }
+}
@@ -0,0 +1,61 @@
+package com.vip;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the text of one traced execution: the "+++++" banner as {@link PreparedStatementProxy#reportSql} logs it
+ * against the JSON line of {@link JsonLinesWriter}, with the parameterized and the rendered SQL. Neither is written
+ * anywhere, only built. Run with {@code -prof gc} to compare the bytes allocated per line as well.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonLineEncoderBenchmark {
+
+    private static final String SQL = "select o.id, o.status, o.total from orders o join customers c on c.id = "
+            + "o.customer_id where c.email = ? and o.created_at >= ? and o.total > ? and o.status in (?, ?) "
+            + "order by o.created_at desc limit ?";
+
+    private final Object[] args = {"jane.o'hara@example.com", Timestamp.valueOf("2024-05-01 12:30:00.25"),
+            new BigDecimal("199.90"), "PAID", "SHIPPED", 50};
+    private final SqlTemplate template = new SqlTemplate(12, 0L, SQL, true);
+    private final JsonLineEncoder encoder = new JsonLineEncoder();
+    private final long startMillis = System.currentTimeMillis();
+
+    @Benchmark
+    public String banner() {
+        return PreparedStatementProxy.banner(PreparedStatementProxy.renderSql(SQL, args, args.length, null),
+                "executeQuery()");
+    }
+
+    @Benchmark
+    public int jsonLine() {
+        encoder.reset();
+        JsonLinesWriter.encode(encoder, false, template, SQL, "executeQuery", args, args.length, startMillis,
+                830000L, -1L, null);
+        return encoder.length();
+    }
+
+    @Benchmark
+    public int jsonLineRenderedSql() {
+        encoder.reset();
+        JsonLinesWriter.encode(encoder, true, template, SQL, "executeQuery", args, args.length, startMillis,
+                830000L, -1L, null);
+        return encoder.length();
+    }
+}
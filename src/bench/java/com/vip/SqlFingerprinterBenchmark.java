@@ -0,0 +1,88 @@
+package com.vip;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link SqlFingerprinter} over mysql-corpus.sql, one statement per line: sysbench OLTP, WordPress,
+ * Drupal and Magento queries, Hibernate generated SQL and hand written reporting and queue statements. The "bytes"
+ * counter is SQL bytes fingerprinted per second on one thread; the target is 200 MB/s.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SqlFingerprinterBenchmark {
+
+    private String[] corpus;
+    private long corpusBytes;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void load() throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                SqlFingerprinterBenchmark.class.getResourceAsStream("/mysql-corpus.sql"), StandardCharsets.UTF_8));
+        try {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                    corpusBytes += line.getBytes(StandardCharsets.UTF_8).length;
+                }
+            }
+        } finally {
+            in.close();
+        }
+        corpus = lines.toArray(new String[0]);
+    }
+
+    @Benchmark
+    public long fingerprint(Bytes counter) {
+        long h = 0;
+        for (String sql : corpus) {
+            h += SqlFingerprinter.fingerprint(sql);
+        }
+        counter.bytes += corpusBytes;
+        return h;
+    }
+
+    @Benchmark
+    public int normalize(Bytes counter) {
+        int n = 0;
+        for (String sql : corpus) {
+            n += SqlFingerprinter.normalize(sql).length();
+        }
+        counter.bytes += corpusBytes;
+        return n;
+    }
+}
@@ -0,0 +1,79 @@
+SELECT c FROM sbtest1 WHERE id=5021
+SELECT c FROM sbtest3 WHERE id BETWEEN 4987 AND 5086
+SELECT SUM(k) FROM sbtest7 WHERE id BETWEEN 50321 AND 50420
+SELECT c FROM sbtest2 WHERE id BETWEEN 10033 AND 10132 ORDER BY c
+SELECT DISTINCT c FROM sbtest9 WHERE id BETWEEN 77 AND 176 ORDER BY c
+UPDATE sbtest5 SET k=k+1 WHERE id=49912
+UPDATE sbtest1 SET c='83868641912-28773972837-60736120486-75162659906-27563526494-20381887404-41576422241-93426793964-56405065102-33518432330' WHERE id=50019
+DELETE FROM sbtest4 WHERE id=49985
+INSERT INTO sbtest4 (id, k, c, pad) VALUES (49985, 50193, '67847967377-48000963322-62604785301-91415491898-96926520291-89295066914-66599565282-35946137113-23424183939-65106419386', '22195207048-70116052123-74140395089-76317954521-98694025897')
+BEGIN
+COMMIT
+SELECT option_name, option_value FROM wp_options WHERE autoload = 'yes'
+SELECT option_value FROM wp_options WHERE option_name = 'rewrite_rules' LIMIT 1
+SELECT wp_posts.ID FROM wp_posts WHERE 1=1 AND wp_posts.post_type = 'post' AND ((wp_posts.post_status = 'publish')) ORDER BY wp_posts.post_date DESC LIMIT 0, 10
+SELECT wp_posts.* FROM wp_posts WHERE ID IN (1532,1529,1527,1511,1498,1490,1477,1462,1455,1448)
+SELECT post_id, meta_key, meta_value FROM wp_postmeta WHERE post_id IN (1532,1529,1527,1511,1498,1490,1477,1462,1455,1448) ORDER BY meta_id ASC
+SELECT t.*, tt.*, tr.object_id FROM wp_terms AS t INNER JOIN wp_term_taxonomy AS tt ON t.term_id = tt.term_id INNER JOIN wp_term_relationships AS tr ON tr.term_taxonomy_id = tt.term_taxonomy_id WHERE tt.taxonomy IN ('category', 'post_tag', 'post_format') AND tr.object_id IN (1532, 1529, 1527, 1511) ORDER BY t.name ASC
+SELECT * FROM wp_users WHERE user_login = 'admin' LIMIT 1
+SELECT user_id, meta_key, meta_value FROM wp_usermeta WHERE user_id IN (1) ORDER BY umeta_id ASC
+UPDATE `wp_options` SET `option_value` = '1716203051.4012939929962158203125' WHERE `option_name` = '_transient_doing_cron'
+INSERT INTO `wp_options` (`option_name`, `option_value`, `autoload`) VALUES ('_transient_timeout_feed_9bbd59226dc36b9b26cd43f15694c5c3', '1716246251', 'no') ON DUPLICATE KEY UPDATE `option_name` = VALUES(`option_name`), `option_value` = VALUES(`option_value`), `autoload` = VALUES(`autoload`)
+SELECT COUNT(*) FROM wp_comments WHERE comment_approved = '1' AND comment_post_ID = 1532 AND comment_parent = 0
+SELECT SQL_CALC_FOUND_ROWS wp_posts.ID FROM wp_posts LEFT JOIN wp_term_relationships ON (wp_posts.ID = wp_term_relationships.object_id) WHERE 1=1 AND (wp_term_relationships.term_taxonomy_id IN (4)) AND wp_posts.post_type = 'post' AND (wp_posts.post_status = 'publish' OR wp_posts.post_status = 'private') GROUP BY wp_posts.ID ORDER BY wp_posts.post_date DESC LIMIT 0, 10
+select user0_.id as id1_12_0_, user0_.created_at as created_2_12_0_, user0_.email as email3_12_0_, user0_.enabled as enabled4_12_0_, user0_.last_login as last_log5_12_0_, user0_.name as name6_12_0_ from users user0_ where user0_.id=884213
+select order0_.id as id1_7_, order0_.customer_id as customer8_7_, order0_.created_at as created_2_7_, order0_.status as status3_7_, order0_.total as total4_7_ from orders order0_ where order0_.customer_id=884213 and order0_.status in ('NEW' , 'PAID' , 'SHIPPED') order by order0_.created_at desc limit 20
+select items0_.order_id as order_id5_6_0_, items0_.id as id1_6_0_, items0_.id as id1_6_1_, items0_.price as price2_6_1_, items0_.product_id as product_6_6_1_, items0_.quantity as quantity3_6_1_ from order_items items0_ where items0_.order_id=7710023
+insert into order_items (order_id, price, product_id, quantity, id) values (7710023, 19.99, 30021, 2, 99120031)
+update orders set status='PAID', updated_at='2024-05-20 11:04:13.512', version=4 where id=7710023 and version=3
+select product0_.id as id1_9_, product0_.name as name2_9_, product0_.price as price3_9_, product0_.stock as stock4_9_ from products product0_ where product0_.id in (30021 , 30022 , 30040 , 30111 , 30112 , 30201 , 31007)
+select count(*) as col_0_0_ from orders order0_ where order0_.created_at>='2024-05-01 00:00:00' and order0_.created_at<'2024-06-01 00:00:00'
+SELECT `catalog_product_entity`.* FROM `catalog_product_entity` WHERE (`catalog_product_entity`.`entity_id` IN('2041', '2042', '2043', '2044', '2045', '2046'))
+SELECT `main_table`.* FROM `sales_order_grid` AS `main_table` WHERE (`customer_id` = '10233') ORDER BY created_at DESC LIMIT 20
+INSERT INTO `quote_item` (`quote_id`, `created_at`, `updated_at`, `product_id`, `store_id`, `is_virtual`, `sku`, `name`, `qty`, `price`, `base_price`, `row_total`) VALUES ('88231', '2024-05-20 11:04:13', '2024-05-20 11:04:13', '2041', '1', '0', 'MH01-XS-Black', 'Chaz Kangeroo Hoodie', 1, 52.0000, 52.0000, 52.0000)
+SELECT `e`.*, `price_index`.`price`, `price_index`.`tax_class_id`, `price_index`.`final_price`, IF(price_index.tier_price IS NOT NULL, LEAST(price_index.min_price, price_index.tier_price), price_index.min_price) AS `minimal_price`, `price_index`.`min_price`, `price_index`.`max_price`, `price_index`.`tier_price` FROM `catalog_product_entity` AS `e` INNER JOIN `catalog_product_index_price` AS `price_index` ON price_index.entity_id = e.entity_id AND price_index.website_id = '1' AND price_index.customer_group_id = 0 WHERE (e.entity_id IN (2041, 2042, 2043)) LIMIT 3
+/* ApplicationName=DBeaver 23.0.1 - SQLEditor <Script-4.sql> */ select * from information_schema.processlist where command != 'Sleep' order by time desc
+SELECT /*+ MAX_EXECUTION_TIME(1000) */ id, balance FROM accounts WHERE id = 1001 FOR UPDATE
+UPDATE accounts SET balance = balance - 250.00 WHERE id = 1001 AND balance >= 250.00
+UPDATE accounts SET balance = balance + 250.00 WHERE id = 2002
+INSERT INTO ledger (account_id, amount, ref, created_at) VALUES (1001, -250.00, 'TX-2024-0520-000193', NOW()), (2002, 250.00, 'TX-2024-0520-000193', NOW())
+SELECT id, name, email FROM customers WHERE email LIKE 'john.smith%' ORDER BY id LIMIT 50
+SELECT c.id, c.name, COUNT(o.id) AS orders, SUM(o.total) AS revenue FROM customers c LEFT JOIN orders o ON o.customer_id = c.id AND o.created_at >= DATE_SUB(NOW(), INTERVAL 30 DAY) GROUP BY c.id, c.name HAVING revenue > 1000 ORDER BY revenue DESC LIMIT 100
+INSERT IGNORE INTO page_views (page_id, visitor_hash, viewed_at) VALUES (312, x'9f86d081884c7d659a2feaa0c55ad015', '2024-05-20 11:04:13')
+REPLACE INTO sessions (id, user_id, data, expires) VALUES ('f3b1c9e2-7a4d-4e8b-9c1f-2d3e4f5a6b7c', 884213, '{\"cart\":[30021,30022],\"locale\":\"en_US\"}', 1716246251)
+SELECT * FROM sessions WHERE id = 'f3b1c9e2-7a4d-4e8b-9c1f-2d3e4f5a6b7c' AND expires > 1716203051
+DELETE FROM sessions WHERE expires < 1716203051 LIMIT 1000
+SELECT id FROM jobs WHERE status = 'queued' AND run_at <= '2024-05-20 11:04:13' ORDER BY priority DESC, id LIMIT 10 FOR UPDATE SKIP LOCKED
+UPDATE jobs SET status = 'running', locked_by = 'worker-7', locked_at = '2024-05-20 11:04:13' WHERE id IN (55120, 55121, 55124, 55130)
+SELECT 1
+SELECT @@session.transaction_isolation
+SET autocommit=1
+SET NAMES utf8mb4
+SHOW WARNINGS
+SELECT p.id, p.title, p.body, u.name AS author, p.created_at FROM posts p JOIN users u ON u.id = p.user_id WHERE p.published = 1 AND p.created_at < '2024-05-20' AND p.id < 991203 ORDER BY p.id DESC LIMIT 25
+SELECT tag_id, COUNT(*) FROM post_tags WHERE post_id IN (991202, 991201, 991199, 991188, 991187, 991150, 991149, 991148, 991122, 991120, 991119, 991101, 991100, 991099, 991080, 991077, 991076, 991050, 991049, 991033, 991032, 991031, 991020, 991019, 991018) GROUP BY tag_id
+INSERT INTO audit_log (actor_id, action, entity, entity_id, payload, created_at) VALUES (884213, 'order.update', 'orders', 7710023, '{"from":"NEW","to":"PAID","amount":39.98,"currency":"EUR"}', '2024-05-20 11:04:13.512')
+SELECT a.id, a.sku, a.qty - IFNULL(r.reserved, 0) AS available FROM inventory a LEFT JOIN (SELECT sku, SUM(qty) reserved FROM reservations WHERE expires_at > NOW() GROUP BY sku) r ON r.sku = a.sku WHERE a.warehouse_id = 3 AND a.sku IN ('MH01-XS-Black', 'MH01-S-Black', 'MH01-M-Black', 'MH01-L-Black')
+UPDATE inventory SET qty = qty - 2, updated_at = '2024-05-20 11:04:13' WHERE warehouse_id = 3 AND sku = 'MH01-XS-Black' AND qty >= 2
+select m.id, m.thread_id, m.sender_id, m.body, m.sent_at from messages m where m.thread_id = 4410021 and m.sent_at > '2024-05-19 00:00:00.000' order by m.sent_at asc limit 200
+insert into messages (thread_id, sender_id, body, sent_at) values (4410021, 884213, 'Hi! Can you check my order #7710023? It''s been "pending" for 2 days\nThanks', '2024-05-20 11:04:13.512')
+SELECT COUNT(DISTINCT user_id) FROM events WHERE type = 'login' AND created_at BETWEEN '2024-05-13 00:00:00' AND '2024-05-20 00:00:00'
+SELECT DATE(created_at) d, type, COUNT(*) n FROM events WHERE created_at >= '2024-05-01' GROUP BY d, type ORDER BY d, n DESC
+INSERT INTO events (user_id, type, props, created_at) VALUES (884213, 'view', '{"page":"/product/30021","ref":"search"}', '2024-05-20 11:04:13'), (884213, 'view', '{"page":"/product/30022","ref":"related"}', '2024-05-20 11:04:21'), (884214, 'login', '{}', '2024-05-20 11:04:22'), (884215, 'click', '{"target":"buy"}', '2024-05-20 11:04:25')
+SELECT * FROM users WHERE id = 884213 AND deleted_at IS NULL
+SELECT id, parent_id, name, path FROM categories WHERE path LIKE '1/4/12/%' AND level <= 5 ORDER BY position
+SELECT s.id, s.code, s.rate FROM shipping_rates s WHERE s.country = 'DE' AND s.weight_from <= 2.5 AND s.weight_to > 2.5 AND s.active = true
+UPDATE users SET last_login = '2024-05-20 11:04:13', login_count = login_count + 1 WHERE id = 884213
+SELECT GET_LOCK('cron:cleanup', 0)
+SELECT RELEASE_LOCK('cron:cleanup')
+SELECT t1.a, t2.b FROM t1 STRAIGHT_JOIN t2 ON t1.id = t2.t1_id WHERE t1.a > -15 AND t2.b <> 0x1F AND t2.c = b'1010' AND t1.d = 1.5e-3
+/* nightly report */ SELECT region, SUM(amount) FROM sales WHERE sold_at >= '2024-04-01' AND sold_at < '2024-05-01' GROUP BY region WITH ROLLUP
+SELECT JSON_EXTRACT(props, '$.page') AS page, COUNT(*) FROM events WHERE type = 'view' AND created_at > NOW() - INTERVAL 1 HOUR GROUP BY page ORDER BY 2 DESC LIMIT 10
+SELECT id, CONCAT(first_name, ' ', last_name) AS name FROM employees WHERE dept_id = 12 AND hired_at > '2020-01-01' AND salary BETWEEN 50000 AND 90000 ORDER BY last_name, first_name
+SELECT o.id FROM orders o WHERE NOT EXISTS (SELECT 1 FROM payments p WHERE p.order_id = o.id) AND o.created_at < '2024-05-19 11:04:13' AND o.status = 'NEW'
+SELECT cnt FROM counters WHERE name = 'page:312' # hit counter
+INSERT INTO counters (name, cnt) VALUES ('page:312', 1) ON DUPLICATE KEY UPDATE cnt = cnt + 1
+SELECT `id`,`title`,`slug`,`excerpt`,`published_at` FROM `articles` WHERE `status`=2 AND `published_at`<=1716203051 AND `category_id` IN (3,7,9,12) ORDER BY `published_at` DESC LIMIT 10 OFFSET 40
+SELECT COUNT(*) FROM `articles` WHERE `status`=2 AND `published_at`<=1716203051 AND `category_id` IN (3,7,9,12)
+SELECT n.nid, n.title, n.created FROM node_field_data n WHERE n.status = 1 AND n.type = 'article' AND n.langcode = 'en' ORDER BY n.sticky DESC, n.created DESC LIMIT 10 OFFSET 0
+SELECT cid, data, created, expire, serialized, tags, checksum FROM cache_render WHERE cid IN ('entity_view:node:1532:teaser:[languages:language_interface]=en:[theme]=olivero:[user.permissions]=4f3a2b1c') ORDER BY cid
@@ -0,0 +1,111 @@
+package com.vip;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Agent settings, read from system properties prefixed with {@code jdbclog.}.
+ *
+ * Options can also be passed as agent arguments, e.g.
+ * {@code -javaagent:jdbc-log-agent.jar=tracker.reportIntervalMs=30000;tracker.stackSampleRate=10},
+ * an explicit -D system property wins over the agent argument. Quote values containing ';' or ',', e.g. filter rules.
+ */
+final class AgentConfig {
+
+    static final String PREFIX = "jdbclog.";
+
+    private AgentConfig() {
+    }
+
+    /**
+     * Copy "key=value" pairs separated by ';' or ',' from the agent arguments into system properties. A value in
+     * double or single quotes may contain the separators, e.g. {@code filter.exclude="type:delete;table:audit_*"}.
+     *
+     * @param agentArgs arguments after the '=' of -javaagent, may be null
+     */
+    static void load(String agentArgs) {
+        if (agentArgs == null || agentArgs.isEmpty()) {
+            return;
+        }
+        for (String pair : split(agentArgs)) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) {
+                continue;
+            }
+            String key = PREFIX + pair.substring(0, eq).trim();
+            if (System.getProperty(key) == null) {
+                System.setProperty(key, unquote(pair.substring(eq + 1).trim()));
+            }
+        }
+    }
+
+    /**
+     * Split at ';' and ',' outside of quotes.
+     */
+    static List<String> split(String agentArgs) {
+        List<String> pairs = new ArrayList<String>();
+        char quote = 0;
+        int start = 0;
+        for (int i = 0; i < agentArgs.length(); i++) {
+            char c = agentArgs.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == ';' || c == ',') {
+                pairs.add(agentArgs.substring(start, i));
+                start = i + 1;
+            }
+        }
+        pairs.add(agentArgs.substring(start));
+        return pairs;
+    }
+
+    private static String unquote(String value) {
+        if (value.length() >= 2 && (value.charAt(0) == '"' || value.charAt(0) == '\'')
+                && value.charAt(value.length() - 1) == value.charAt(0)) {
+            return value.substring(1, value.length() - 1);
+        }
+        return value;
+    }
+
+    static String getString(String key, String def) {
+        String value = System.getProperty(PREFIX + key);
+        return value == null || value.isEmpty() ? def : value;
+    }
+
+    static boolean getBoolean(String key, boolean def) {
+        String value = System.getProperty(PREFIX + key);
+        return value == null || value.isEmpty() ? def : Boolean.parseBoolean(value.trim());
+    }
+
+    static long getLong(String key, long def) {
+        String value = System.getProperty(PREFIX + key);
+        if (value == null || value.isEmpty()) {
+            return def;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    static int getInt(String key, int def) {
+        return (int) getLong(key, def);
+    }
+
+    static double getDouble(String key, double def) {
+        String value = System.getProperty(PREFIX + key);
+        if (value == null || value.isEmpty()) {
+            return def;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+}
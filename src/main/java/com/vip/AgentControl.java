@@ -0,0 +1,92 @@
+package com.vip;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Exposes the agent's on demand operations over JMX (jconsole, jmxterm, ...), disabled with
+ * {@code jdbclog.jmx.enabled=false}.
+ *
+ * Registered when the first statement is prepared rather than in premain, so the platform MBean server is not
+ * created before the application had a chance to configure its own logging and JMX.
+ */
+final class AgentControl implements AgentControlMBean {
+
+    private static final Logger log = LoggerFactory.getLogger(AgentControl.class);
+
+    static final String OBJECT_NAME = "com.vip:type=JdbcLogAgent";
+
+    private static final int topTemplates = AgentConfig.getInt("stats.topTemplates", 20);
+
+    private AgentControl() {
+    }
+
+    static void register() {
+        if (!AgentConfig.getBoolean("jmx.enabled", true)) {
+            return;
+        }
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(
+                        new StandardMBean(new AgentControl(), AgentControlMBean.class), name);
+            }
+        } catch (Throwable t) {
+            log.warn("could not register " + OBJECT_NAME + ": " + t);
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return AgentSwitch.isEnabled();
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        AgentSwitch.setEnabled(enabled);
+    }
+
+    @Override
+    public String dumpBindStatistics() {
+        List<SqlTemplate> all = TemplateRegistry.templates();
+        Collections.sort(all, new Comparator<SqlTemplate>() {
+            @Override
+            public int compare(SqlTemplate a, SqlTemplate b) {
+                return Long.compare(b.executions.sum(), a.executions.sum());
+            }
+        });
+        StringBuilder dump = new StringBuilder("bind values of the most executed templates:");
+        int shown = 0;
+        for (SqlTemplate t : all) {
+            if (shown >= topTemplates) {
+                break;
+            }
+            if (t.binds == null || t.binds.parameter(0) == null) {
+                continue;
+            }
+            dump.append("\n").append(t.executions.sum()).append(" x ").append(t.sql);
+            t.binds.dump(dump);
+            shown++;
+        }
+        return dump.toString();
+    }
+
+    @Override
+    public String dumpFailures() {
+        List<SqlTemplate> all = TemplateRegistry.templates();
+        Collections.sort(all, new Comparator<SqlTemplate>() {
+            @Override
+            public int compare(SqlTemplate a, SqlTemplate b) {
+                return Long.compare(b.errors.sum(), a.errors.sum());
+            }
+        });
+        return StatementFailures.dump(all);
+    }
+}
@@ -0,0 +1,27 @@
+package com.vip;
+
+/**
+ * Management operations of the agent, registered as {@code com.vip:type=JdbcLogAgent}.
+ */
+public interface AgentControlMBean {
+
+    /**
+     * @return true when newly prepared statements are instrumented
+     */
+    boolean isEnabled();
+
+    /**
+     * Switch the instrumentation of newly prepared statements on or off, statements already prepared are unaffected.
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * @return distinct count and most frequent values of every parameter of the busiest prepared templates
+     */
+    String dumpBindStatistics();
+
+    /**
+     * @return failures of every template by error code, with the last logged statement of each code
+     */
+    String dumpFailures();
+}
@@ -0,0 +1,91 @@
+package com.vip;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.sql.PreparedStatement;
+
+/**
+ * Global on/off switch of the instrumentation, consulted by the woven {@code ConnectionImpl.prepareStatement} for
+ * every statement it prepares.
+ *
+ * The decision lives in the target of a MutableCallSite read through a static final invoker, so the JIT inlines the
+ * current target as a constant: while the agent is off, {@link #wrap} compiles down to returning the driver's own
+ * statement, no proxy, no template lookup, no check. Flipping the switch swaps the target and deoptimizes the code
+ * that inlined the old one; statements prepared afterwards follow the new state, statements already prepared keep
+ * their wrapper. The initial state is {@code jdbclog.enabled} (default true), at runtime it is the Enabled attribute of
+ * the {@link AgentControlMBean}.
+ *
+ * The woven code calls {@link #wrap} with a plain invokestatic rather than invokedynamic, the driver's class files
+ * are older than Java 7 and can't carry an invokedynamic instruction.
+ */
+public final class AgentSwitch {
+
+    private static final Logger log = LoggerFactory.getLogger(AgentSwitch.class);
+
+    private static final MethodType WRAP_TYPE =
+            MethodType.methodType(PreparedStatement.class, String.class, PreparedStatement.class);
+
+    private static final MethodHandle PROXY;
+    private static final MethodHandle RAW;
+
+    static {
+        try {
+            PROXY = MethodHandles.lookup()
+                    .findConstructor(PreparedStatementProxy.class,
+                            MethodType.methodType(void.class, String.class, PreparedStatement.class))
+                    .asType(WRAP_TYPE);
+            RAW = MethodHandles.dropArguments(MethodHandles.identity(PreparedStatement.class), 0, String.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final MutableCallSite site = new MutableCallSite(WRAP_TYPE);
+    private static final MethodHandle invoker = site.dynamicInvoker();
+    private static volatile boolean enabled;
+
+    static {
+        enabled = AgentConfig.getBoolean("enabled", true);
+        site.setTarget(enabled ? PROXY : RAW);
+        AgentControl.register();
+    }
+
+    private AgentSwitch() {
+    }
+
+    /**
+     * Called by the woven prepareStatement with the statement the driver prepared.
+     *
+     * @return a PreparedStatementProxy around statement, or statement itself while the agent is off
+     */
+    public static PreparedStatement wrap(String sql, PreparedStatement statement) {
+        try {
+            return (PreparedStatement) invoker.invokeExact(sql, statement);
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable t) {
+            // never fail the application's prepareStatement because of the agent
+            log.warn("could not wrap prepared statement, returning it unwrapped: " + t);
+            return statement;
+        }
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    static synchronized void setEnabled(boolean on) {
+        if (on == enabled) {
+            return;
+        }
+        enabled = on;
+        site.setTarget(on ? PROXY : RAW);
+        MutableCallSite.syncAll(new MutableCallSite[]{site});
+        log.info("SQL instrumentation " + (on ? "enabled" : "disabled") + " for newly prepared statements");
+    }
+}
@@ -0,0 +1,183 @@
+package com.vip;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Distinct count and heavy hitters of the values bound to each parameter of one prepared template, to spot skewed
+ * parameters behind bad plans.
+ *
+ * Every parameter gets a {@link HyperLogLog} of 2^{@code jdbclog.sketch.precision} registers and a {@link TopK} of
+ * {@code jdbclog.sketch.topK} values, allocated on its first execution. Only the first {@code jdbclog.sketch.maxParams}
+ * parameters are sketched, so a template never holds more than maxParams * (2^precision + ~200 * topK) bytes: TopK
+ * keeps a bounded copy of each tracked value, never the bound object.
+ * Values are hashed as they were captured, numbers by value and strings by their characters; only a value that
+ * enters the top list is copied, and only one of a type the agent doesn't know is formatted.
+ *
+ * Templates with an IN list or VALUES tuples collapsed to "(?+)" are not sketched: their prepared statements differ
+ * in the number of parameters, so the n-th parameter is a different column from one statement to the next.
+ */
+final class BindSketches {
+
+    static final boolean enabled = AgentConfig.getBoolean("sketch.enabled", true);
+    static final int precision = Math.max(4, Math.min(16, AgentConfig.getInt("sketch.precision", 8)));
+    static final int topK = Math.max(1, AgentConfig.getInt("sketch.topK", 16));
+    static final int maxParams = Math.max(1, AgentConfig.getInt("sketch.maxParams", 16));
+
+    private static final long NULL_HASH = 0x9E3779B97F4A7C15L;
+
+    private final AtomicReferenceArray<ParameterSketch> parameters =
+            new AtomicReferenceArray<ParameterSketch>(maxParams);
+
+    /**
+     * @param normalizedSql the template's SQL
+     * @return false when parameter positions don't mean the same thing in every statement of the template
+     */
+    static boolean applies(String normalizedSql) {
+        return !normalizedSql.contains("(?+)");
+    }
+
+    /**
+     * Count one execution's bind values.
+     *
+     * @param args raw bind variables as captured by PreparedStatementProxy, null for "not bound"
+     */
+    void record(Object[] args, int argCount) {
+        int n = Math.min(argCount, maxParams);
+        for (int i = 0; i < n; i++) {
+            Object arg = args[i];
+            if (arg == null) {
+                continue;
+            }
+            ParameterSketch sketch = parameters.get(i);
+            if (sketch == null) {
+                parameters.compareAndSet(i, null, new ParameterSketch(precision, topK));
+                sketch = parameters.get(i);
+            }
+            sketch.add(hash(arg), arg);
+        }
+    }
+
+    /**
+     * @param index 0 based parameter index
+     * @return sketch of the parameter, null when nothing was bound to it yet
+     */
+    ParameterSketch parameter(int index) {
+        return index < maxParams ? parameters.get(index) : null;
+    }
+
+    int parameterCount() {
+        return maxParams;
+    }
+
+    /**
+     * Sketch of a parameter to merge into, created with the given dimensions when the parameter has none yet.
+     *
+     * @return null when the index is beyond maxParams
+     */
+    ParameterSketch mergeTarget(int index, int precision, int topK) {
+        if (index >= maxParams) {
+            return null;
+        }
+        ParameterSketch sketch = parameters.get(index);
+        if (sketch == null) {
+            parameters.compareAndSet(index, null, new ParameterSketch(precision, topK));
+            sketch = parameters.get(index);
+        }
+        return sketch;
+    }
+
+    /**
+     * Append one line per sketched parameter, e.g. "  ?1 distinct~1520 top: 42 x830, 7 x12 (+-3)". Values whose count
+     * is mostly estimation error are left out, with many distinct values and no heavy hitter the list is empty.
+     */
+    void dump(StringBuilder out) {
+        for (int i = 0; i < maxParams; i++) {
+            ParameterSketch sketch = parameters.get(i);
+            if (sketch == null) {
+                continue;
+            }
+            out.append("\n  ?").append(i + 1).append(" distinct~").append(sketch.distinct.estimate()).append(" top:");
+            int shown = 0;
+            for (TopK.Entry e : sketch.top.entries()) {
+                if (e.error * 2 >= e.count) {
+                    continue;
+                }
+                out.append(shown++ == 0 ? " " : ", ").append(PreparedStatementProxy.traceArg(e.value, null))
+                        .append(" x").append(e.count);
+                if (e.error > 0) {
+                    out.append(" (+-").append(e.error).append(')');
+                }
+            }
+            if (shown == 0) {
+                out.append(" -");
+            }
+        }
+    }
+
+    /**
+     * 64 bit hash of a captured bind value. Equal numbers hash alike whatever their boxed type.
+     */
+    static long hash(Object arg) {
+        long h;
+        if (arg == PreparedStatementProxy.NULL_ARG) {
+            return NULL_HASH;
+        } else if (arg instanceof Integer || arg instanceof Long || arg instanceof Short || arg instanceof Byte) {
+            h = ((Number) arg).longValue();
+        } else if (arg instanceof Double || arg instanceof Float) {
+            h = Double.doubleToLongBits(((Number) arg).doubleValue()) ^ 0x5851F42D4C957F2DL;
+        } else if (arg instanceof String) {
+            String s = (String) arg;
+            h = ((long) s.hashCode() << 32) ^ s.length();
+        } else if (arg instanceof Date) {
+            h = ((Date) arg).getTime() * 31 + (arg instanceof Timestamp ? ((Timestamp) arg).getNanos() : 0);
+        } else if (arg instanceof BigDecimal) {
+            h = safeHashCode(arg) * 0x100000001B3L;
+        } else if (arg instanceof Boolean) {
+            h = (Boolean) arg ? 1231 : 1237;
+        } else {
+            h = safeHashCode(arg);
+        }
+        return mix(h);
+    }
+
+    /**
+     * hashCode() of a value of a type the agent knows nothing about, which may throw; such values all count as one.
+     */
+    private static int safeHashCode(Object arg) {
+        try {
+            return arg.hashCode();
+        } catch (Throwable t) {
+            return arg.getClass().hashCode();
+        }
+    }
+
+    /**
+     * MurmurHash3 finalizer, spreads every input bit over the whole hash.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    static final class ParameterSketch {
+        final HyperLogLog distinct;
+        final TopK top;
+
+        ParameterSketch(int precision, int topK) {
+            this.distinct = new HyperLogLog(precision);
+            this.top = new TopK(topK);
+        }
+
+        void add(long hash, Object value) {
+            distinct.add(hash);
+            top.add(hash, value);
+        }
+    }
+}
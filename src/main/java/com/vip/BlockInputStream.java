@@ -0,0 +1,222 @@
+package com.vip;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+
+/**
+ * Reads the frames written by {@link BlockSink} back as the plain stream of JSON lines.
+ *
+ * <pre>
+ * java -cp jdbc-log-agent.jar com.vip.BlockInputStream sql.jsonl.z ... | grep '"template":12,'
+ * </pre>
+ * A frame with a bad checksum, or cut off at the end of the file by a crash, is skipped: the reader scans forward for
+ * the next magic and goes on with the frames written after the restart. Custom codecs are found through
+ * {@code jdbclog.json.compress}, as for the writer.
+ */
+public class BlockInputStream extends InputStream {
+
+    private final InputStream in;
+    private final Compressor deflate = new DeflateCompressor(1);
+    private final Compressor custom;
+    /**
+     * longest payload a frame of any configured codec can have
+     */
+    private final int maxPayload;
+    private final byte[] header = new byte[BlockSink.HEADER_LENGTH];
+    private final CRC32 crc = new CRC32();
+    private byte[] payload = new byte[0];
+    private byte[] block = new byte[0];
+    private int pos;
+    private int limit;
+    private long skippedBytes;
+
+    public BlockInputStream(InputStream in) {
+        this.in = new BufferedInputStream(in, 64 * 1024);
+        String name = AgentConfig.getString("json.compress", "deflate");
+        this.custom = "deflate".equalsIgnoreCase(name) ? null : BlockSink.compressor(name, 1);
+        this.maxPayload = Math.max(deflate.maxCompressedLength(BlockSink.MAX_RECORD),
+                custom != null ? custom.maxCompressedLength(BlockSink.MAX_RECORD) : 0);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: BlockInputStream <compressed JSON output files>");
+            System.exit(2);
+        }
+        OutputStream out = System.out;
+        byte[] buffer = new byte[64 * 1024];
+        for (String file : args) {
+            BlockInputStream in = new BlockInputStream(new FileInputStream(file));
+            try {
+                for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                    out.write(buffer, 0, n);
+                }
+            } finally {
+                in.close();
+            }
+            if (in.skippedBytes() > 0) {
+                System.err.println(file + ": skipped " + in.skippedBytes() + " bytes of torn or corrupt frames");
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * @return bytes not part of a valid frame so far
+     */
+    public long skippedBytes() {
+        return skippedBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pos == limit && !nextBlock()) {
+            return -1;
+        }
+        return block[pos++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (pos == limit && !nextBlock()) {
+            return -1;
+        }
+        int n = Math.min(len, limit - pos);
+        System.arraycopy(block, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return limit - pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private boolean nextBlock() throws IOException {
+        while (true) {
+            in.mark(BlockSink.HEADER_LENGTH + maxPayload);
+            int n = readFully(header, BlockSink.HEADER_LENGTH);
+            if (n == 0) {
+                return false;
+            }
+            if (n < BlockSink.HEADER_LENGTH) {
+                // torn header at the end, there may still be a whole frame in these bytes
+                if (!resync()) {
+                    return false;
+                }
+                continue;
+            }
+            if (!validHeader()) {
+                resync();
+                continue;
+            }
+            int rawLength = BlockSink.getInt(header, 5);
+            int payloadLength = BlockSink.getInt(header, 9);
+            if (payload.length < payloadLength) {
+                payload = new byte[payloadLength];
+            }
+            if (readFully(payload, payloadLength) < payloadLength) {
+                if (!resync()) {
+                    return false;
+                }
+                continue;
+            }
+            if (block.length < rawLength) {
+                block = new byte[rawLength];
+            }
+            if (!decode(header[4], payloadLength, rawLength)) {
+                resync();
+                continue;
+            }
+            pos = 0;
+            limit = rawLength;
+            if (limit > 0) {
+                return true;
+            }
+        }
+    }
+
+    private boolean validHeader() {
+        for (int i = 0; i < 4; i++) {
+            if (header[i] != BlockSink.MAGIC[i]) {
+                return false;
+            }
+        }
+        crc.reset();
+        crc.update(header, 0, 17);
+        int rawLength = BlockSink.getInt(header, 5);
+        int payloadLength = BlockSink.getInt(header, 9);
+        return (int) crc.getValue() == BlockSink.getInt(header, 17)
+                && rawLength >= 0 && rawLength <= BlockSink.MAX_RECORD
+                && payloadLength >= 0 && payloadLength <= maxPayload;
+    }
+
+    private boolean decode(byte codec, int payloadLength, int rawLength) {
+        try {
+            if (codec == BlockSink.STORED) {
+                if (payloadLength != rawLength) {
+                    return false;
+                }
+                System.arraycopy(payload, 0, block, 0, rawLength);
+            } else if (codec == DeflateCompressor.ID) {
+                deflate.decompress(payload, payloadLength, block, rawLength);
+            } else if (custom != null && codec == custom.id()) {
+                custom.decompress(payload, payloadLength, block, rawLength);
+            } else {
+                return false;
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        crc.reset();
+        crc.update(block, 0, rawLength);
+        return (int) crc.getValue() == BlockSink.getInt(header, 13);
+    }
+
+    /**
+     * Go back to the start of the frame that failed and skip up to the next magic.
+     *
+     * @return false at the end of the stream
+     */
+    private boolean resync() throws IOException {
+        in.reset();
+        in.read();
+        skippedBytes++;
+        while (true) {
+            in.mark(4);
+            int b = in.read();
+            if (b < 0) {
+                return false;
+            }
+            if (b == BlockSink.MAGIC[0]) {
+                in.reset();
+                return true;
+            }
+            skippedBytes++;
+        }
+    }
+
+    private int readFully(byte[] b, int length) throws IOException {
+        int n = 0;
+        while (n < length) {
+            int read = in.read(b, n, length - n);
+            if (read < 0) {
+                break;
+            }
+            n += read;
+        }
+        return n;
+    }
+}
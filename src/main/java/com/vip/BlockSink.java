@@ -0,0 +1,303 @@
+package com.vip;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Compressed output stream of the JSON lines: records are collected into blocks, every full block is compressed and
+ * written as one frame by a background thread.
+ *
+ * A frame is
+ * <pre>
+ * magic "JLBK" | codec (1 byte) | raw length (4) | payload length (4) | CRC32 of the raw bytes (4) |
+ * CRC32 of the 17 bytes before (4) | payload
+ * </pre>
+ * with codec 0 for a block stored as is because it didn't shrink. A frame is written with a single write() call and
+ * frames are self-checking, so a file cut off by a crash, and appended to again after the restart, reads fine up to the
+ * torn frame and again from the next magic on; see {@link BlockInputStream}.
+ *
+ * Application threads only copy their record into the current block under a lock; a record never straddles two blocks.
+ * When all {@code jdbclog.json.blockBuffers} blocks wait for the compressor the record is dropped and counted rather
+ * than making the application wait. A record larger than a block gets a block of its own, which takes the place of a
+ * pooled one until it is written, so it is dropped too when the pool is empty. A codec that throws gets its block
+ * stored. The CPU time the compressor thread spends is reported in the template report.
+ */
+final class BlockSink {
+
+    private static final Logger log = LoggerFactory.getLogger(BlockSink.class);
+
+    static final byte[] MAGIC = {'J', 'L', 'B', 'K'};
+    static final int HEADER_LENGTH = 21;
+    static final byte STORED = 0;
+    /**
+     * larger records are dropped, bounds what a reader has to buffer for one frame
+     */
+    static final int MAX_RECORD = 16 * 1024 * 1024;
+
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private final OutputStream out;
+    private final Compressor compressor;
+    private final int blockSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    private Block current;
+    private final BlockingQueue<Block> free;
+    private final BlockingQueue<Block> full = new LinkedBlockingQueue<Block>();
+    private final Thread worker;
+    private volatile boolean closed;
+
+    final AtomicLong blocks = new AtomicLong();
+    final AtomicLong rawBytes = new AtomicLong();
+    final AtomicLong writtenBytes = new AtomicLong();
+    final AtomicLong compressNanos = new AtomicLong();
+    final AtomicLong droppedRecords = new AtomicLong();
+    private final AtomicLong failedWrites = new AtomicLong();
+    private final AtomicLong failedCompressions = new AtomicLong();
+
+    BlockSink(OutputStream out, Compressor compressor, int blockSize, int blockBuffers) {
+        this.out = out;
+        this.compressor = compressor;
+        this.blockSize = Math.min(blockSize, MAX_RECORD);
+        this.free = new ArrayBlockingQueue<Block>(blockBuffers);
+        for (int i = 0; i < blockBuffers; i++) {
+            free.add(new Block(this.blockSize));
+        }
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                compressBlocks();
+            }
+        }, "jdbc-log-block-compressor");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * @param name "deflate" or the class name of a {@link Compressor}
+     * @return null for "none"
+     */
+    static Compressor compressor(String name, int level) {
+        if (name == null || "none".equalsIgnoreCase(name)) {
+            return null;
+        }
+        if ("deflate".equalsIgnoreCase(name)) {
+            return new DeflateCompressor(level);
+        }
+        try {
+            return (Compressor) Class.forName(name).getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            log.warn("can't create compressor " + name + ", using deflate: " + e);
+            return new DeflateCompressor(level);
+        }
+    }
+
+    /**
+     * Append one record, it ends up in a single block.
+     */
+    void write(byte[] record, int length) {
+        if (closed || length > MAX_RECORD) {
+            droppedRecords.incrementAndGet();
+            return;
+        }
+        lock.lock();
+        try {
+            if (current != null && current.length + length > current.data.length) {
+                full.add(current);
+                current = null;
+            }
+            if (length > blockSize) {
+                // a block of its own, the pooled block it displaces goes back to the pool once it is written
+                Block pooled = free.poll();
+                if (pooled == null) {
+                    droppedRecords.incrementAndGet();
+                    return;
+                }
+                Block big = new Block(length);
+                System.arraycopy(record, 0, big.data, 0, length);
+                big.length = length;
+                big.pooled = pooled;
+                full.add(big);
+                return;
+            }
+            if (current == null) {
+                current = free.poll();
+                if (current == null) {
+                    droppedRecords.incrementAndGet();
+                    return;
+                }
+            }
+            System.arraycopy(record, 0, current.data, current.length, length);
+            current.length += length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hand the partly filled block to the compressor.
+     */
+    void flush() {
+        lock.lock();
+        try {
+            if (current != null && current.length > 0) {
+                full.add(current);
+                current = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Flush and wait up to timeoutMs for the compressor to write everything.
+     */
+    void close(long timeoutMs) {
+        flush();
+        closed = true;
+        worker.interrupt();
+        try {
+            worker.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void compressBlocks() {
+        boolean cpuTime = threads.isCurrentThreadCpuTimeSupported();
+        byte[] compressed = new byte[0];
+        byte[] frame = new byte[0];
+        CRC32 crc = new CRC32();
+        while (true) {
+            Block block;
+            try {
+                block = closed ? full.poll() : full.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // close() wakes us up, write what is left
+                continue;
+            }
+            if (block == null) {
+                if (closed) {
+                    try {
+                        out.flush();
+                    } catch (IOException e) {
+                        writeFailed(e);
+                    }
+                    return;
+                }
+                continue;
+            }
+            try {
+                long start = cpuTime ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+                if (frame.length < HEADER_LENGTH + block.length) {
+                    frame = new byte[HEADER_LENGTH + block.length];
+                }
+                crc.reset();
+                crc.update(block.data, 0, block.length);
+                int dataCrc = (int) crc.getValue();
+                byte codec = compressor.id();
+                int n;
+                try {
+                    int bound = compressor.maxCompressedLength(block.length);
+                    if (compressed.length < bound) {
+                        compressed = new byte[bound];
+                    }
+                    n = compressor.compress(block.data, block.length, compressed);
+                } catch (RuntimeException e) {
+                    // a custom codec that fails, the block is stored
+                    compressFailed(e);
+                    n = -1;
+                }
+                if (n >= 0 && n < block.length && n <= compressed.length) {
+                    System.arraycopy(compressed, 0, frame, HEADER_LENGTH, n);
+                } else {
+                    codec = STORED;
+                    n = block.length;
+                    System.arraycopy(block.data, 0, frame, HEADER_LENGTH, n);
+                }
+                header(frame, codec, block.length, n, dataCrc, crc);
+                compressNanos.addAndGet((cpuTime ? threads.getCurrentThreadCpuTime() : System.nanoTime()) - start);
+                try {
+                    out.write(frame, 0, HEADER_LENGTH + n);
+                    blocks.incrementAndGet();
+                    rawBytes.addAndGet(block.length);
+                    writtenBytes.addAndGet(HEADER_LENGTH + n);
+                } catch (IOException e) {
+                    writeFailed(e);
+                }
+            } finally {
+                Block pooled = block.pooled != null ? block.pooled : block;
+                pooled.length = 0;
+                free.offer(pooled);
+            }
+        }
+    }
+
+    private static void header(byte[] frame, byte codec, int rawLength, int payloadLength, int dataCrc, CRC32 crc) {
+        System.arraycopy(MAGIC, 0, frame, 0, 4);
+        frame[4] = codec;
+        putInt(frame, 5, rawLength);
+        putInt(frame, 9, payloadLength);
+        putInt(frame, 13, dataCrc);
+        crc.reset();
+        crc.update(frame, 0, 17);
+        putInt(frame, 17, (int) crc.getValue());
+    }
+
+    static void putInt(byte[] b, int at, int value) {
+        b[at] = (byte) (value >>> 24);
+        b[at + 1] = (byte) (value >>> 16);
+        b[at + 2] = (byte) (value >>> 8);
+        b[at + 3] = (byte) value;
+    }
+
+    static int getInt(byte[] b, int at) {
+        return (b[at] & 0xff) << 24 | (b[at + 1] & 0xff) << 16 | (b[at + 2] & 0xff) << 8 | (b[at + 3] & 0xff);
+    }
+
+    private void writeFailed(IOException e) {
+        if (failedWrites.getAndIncrement() == 0) {
+            log.warn("writing compressed JSON output failed, further failures are only counted: " + e);
+        }
+    }
+
+    private void compressFailed(RuntimeException e) {
+        if (failedCompressions.getAndIncrement() == 0) {
+            log.warn(compressor.getClass().getName() + " failed, storing the block uncompressed; further failures"
+                    + " are only counted: " + e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        long raw = rawBytes.get();
+        return String.format("blocks=%d rawMB=%d writtenMB=%d ratio=%.1f compressCpuMs=%d dropped=%d",
+                blocks.get(), raw >> 20, writtenBytes.get() >> 20,
+                raw == 0 ? 0.0 : (double) raw / writtenBytes.get(), compressNanos.get() / 1000000,
+                droppedRecords.get());
+    }
+
+    private static final class Block {
+        final byte[] data;
+        int length;
+        /**
+         * for a block of one large record, the pool's block it stands in for
+         */
+        Block pooled;
+
+        Block(int size) {
+            data = new byte[size];
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.vip;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Attributes statements to the application code that issued them: the first stack frame that is not part of the
+ * JDK, the agent, the driver, a connection pool or an ORM.
+ *
+ * Only statements slower than {@code jdbclog.slow.thresholdMs} and a sample of one in
+ * {@code jdbclog.callsite.sampleRate} executions are attributed, fast statements never pay for a stack walk. On
+ * Java 9+ the stack is walked lazily with StackWalker and the walk stops at the first application frame; on Java 8
+ * it falls back to a Throwable stack trace. Call sites are cached per (template, frame) so repeated slow calls from
+ * the same place are counted on one entry instead of building a new location each time.
+ *
+ * The cache saves the CallSite, not the walk: every attributed execution still walks down to its application frame,
+ * some 10 to 15 us with a few dozen framework frames in between. That is why attribution is limited to slow and
+ * sampled executions rather than made cheaper.
+ */
+final class CallSites {
+
+    private static final Logger log = LoggerFactory.getLogger(CallSites.class);
+
+    static final long slowThresholdNanos = AgentConfig.getLong("slow.thresholdMs", 1000L) * 1000000L;
+    private static final int sampleRate = AgentConfig.getInt("callsite.sampleRate", 0);
+    private static final int maxSites = AgentConfig.getInt("callsite.maxSites", 10000);
+
+    private static final String[] skipPrefixes = skipPrefixes(AgentConfig.getString("callsite.skipPackages", ""));
+
+    private static final ConcurrentMap<Long, CallSite> sites = new ConcurrentHashMap<Long, CallSite>();
+    private static final CallSite UNKNOWN = new CallSite("?", "?", null, -1);
+
+    private static final Object stackWalker;
+    private static final MethodHandle walk;
+    private static final MethodHandle frameClassName;
+    private static final MethodHandle frameMethodName;
+    private static final MethodHandle frameFileName;
+    private static final MethodHandle frameLineNumber;
+
+    static {
+        Object walker = null;
+        MethodHandle walkHandle = null;
+        MethodHandle className = null;
+        MethodHandle methodName = null;
+        MethodHandle fileName = null;
+        MethodHandle lineNumber = null;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> walkerClass = Class.forName("java.lang.StackWalker");
+            Class<?> frameClass = Class.forName("java.lang.StackWalker$StackFrame");
+            walker = lookup.findStatic(walkerClass, "getInstance", MethodType.methodType(walkerClass)).invoke();
+            walkHandle = lookup.findVirtual(walkerClass, "walk",
+                    MethodType.methodType(Object.class, Function.class));
+            className = lookup.findVirtual(frameClass, "getClassName", MethodType.methodType(String.class));
+            methodName = lookup.findVirtual(frameClass, "getMethodName", MethodType.methodType(String.class));
+            fileName = lookup.findVirtual(frameClass, "getFileName", MethodType.methodType(String.class));
+            lineNumber = lookup.findVirtual(frameClass, "getLineNumber", MethodType.methodType(int.class));
+        } catch (Throwable t) {
+            // Java 8, use Throwable.getStackTrace()
+            walker = null;
+        }
+        stackWalker = walker;
+        walk = walkHandle;
+        frameClassName = className;
+        frameMethodName = methodName;
+        frameFileName = fileName;
+        frameLineNumber = lineNumber;
+    }
+
+    private CallSites() {
+    }
+
+    /**
+     * @return true when an execution of the given duration should be attributed to its call site
+     */
+    static boolean shouldAttribute(long durationNanos) {
+        return durationNanos >= slowThresholdNanos
+                || (sampleRate > 0 && ThreadLocalRandom.current().nextInt(sampleRate) == 0);
+    }
+
+    /**
+     * Find the application frame of the calling thread and count the execution against it.
+     */
+    static CallSite record(SqlTemplate template, long durationNanos) {
+        CallSite site;
+        try {
+            site = stackWalker != null ? walkLazily(template) : walkThrowable(template);
+        } catch (Throwable t) {
+            log.debug("call site lookup failed: " + t.getMessage());
+            site = UNKNOWN;
+        }
+        site.record(durationNanos);
+        return site;
+    }
+
+    private static final Predicate<Object> APPLICATION_FRAME = new Predicate<Object>() {
+        @Override
+        public boolean test(Object frame) {
+            try {
+                return !isInfrastructure((String) frameClassName.invoke(frame));
+            } catch (Throwable t) {
+                return false;
+            }
+        }
+    };
+
+    private static final Function<Stream<Object>, Object> FIRST_APPLICATION_FRAME =
+            new Function<Stream<Object>, Object>() {
+                @Override
+                public Object apply(Stream<Object> frames) {
+                    return frames.filter(APPLICATION_FRAME).findFirst().orElse(null);
+                }
+            };
+
+    private static CallSite walkLazily(SqlTemplate template) throws Throwable {
+        Object frame = walk.invoke(stackWalker, FIRST_APPLICATION_FRAME);
+        if (frame == null) {
+            return UNKNOWN;
+        }
+        String className = (String) frameClassName.invoke(frame);
+        String methodName = (String) frameMethodName.invoke(frame);
+        int line = (int) frameLineNumber.invoke(frame);
+        CallSite site = sites.get(key(template, className, methodName, line));
+        if (site != null) {
+            return site;
+        }
+        return register(template, new CallSite(className, methodName, (String) frameFileName.invoke(frame), line));
+    }
+
+    private static CallSite walkThrowable(SqlTemplate template) {
+        for (StackTraceElement frame : new Throwable().getStackTrace()) {
+            if (isInfrastructure(frame.getClassName())) {
+                continue;
+            }
+            CallSite site = sites.get(key(template, frame.getClassName(), frame.getMethodName(),
+                    frame.getLineNumber()));
+            if (site != null) {
+                return site;
+            }
+            return register(template, new CallSite(frame.getClassName(), frame.getMethodName(),
+                    frame.getFileName(), frame.getLineNumber()));
+        }
+        return UNKNOWN;
+    }
+
+    private static CallSite register(SqlTemplate template, CallSite site) {
+        if (sites.size() >= maxSites) {
+            return site;
+        }
+        CallSite existing = sites.putIfAbsent(key(template, site.className, site.methodName, site.line), site);
+        return existing != null ? existing : site;
+    }
+
+    private static long key(SqlTemplate template, String className, String methodName, int line) {
+        long frameHash = (className.hashCode() * 31L + methodName.hashCode()) * 31L + line;
+        return template.fingerprint * 1000003L ^ frameHash;
+    }
+
+    static boolean isInfrastructure(String className) {
+        // the agent's own classes live directly in com.vip, application code may use sub packages
+        if ((className.startsWith("com.vip.") && className.indexOf('.', 8) < 0)
+                || className.startsWith("java.") || className.startsWith("javax.") || className.startsWith("jdk.") || className.startsWith("sun.") || className.startsWith("com.sun.")
+                || className.startsWith("com.mysql.") || className.startsWith("com.zaxxer.hikari.")
+                || className.startsWith("com.alibaba.druid.") || className.startsWith("org.apache.commons.dbcp")
+                || className.startsWith("org.apache.tomcat.jdbc.") || className.startsWith("com.mchange.")
+                || className.startsWith("org.hibernate.") || className.startsWith("org.apache.ibatis.")
+                || className.startsWith("org.mybatis.") || className.startsWith("org.jooq.")
+                || className.startsWith("org.springframework.") || className.startsWith("com.baomidou.")
+                || className.contains("$$") || className.contains("$Proxy")) {
+            return true;
+        }
+        for (String prefix : skipPrefixes) {
+            if (className.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String[] skipPrefixes(String packages) {
+        if (packages.trim().isEmpty()) {
+            return new String[0];
+        }
+        String[] prefixes = packages.split("[|\\s]+");
+        for (int i = 0; i < prefixes.length; i++) {
+            prefixes[i] = prefixes[i].trim();
+        }
+        return prefixes;
+    }
+
+    /**
+     * An application frame that issued statements of one template.
+     */
+    static final class CallSite {
+        final String className;
+        final String methodName;
+        final String fileName;
+        final int line;
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        private final String location;
+
+        CallSite(String className, String methodName, String fileName, int line) {
+            this.className = className;
+            this.methodName = methodName;
+            this.fileName = fileName;
+            this.line = line;
+            this.location = className + "." + methodName + "(" + (fileName != null ? fileName : "Unknown Source")
+                    + (line >= 0 ? ":" + line : "") + ")";
+        }
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+        }
+
+        @Override
+        public String toString() {
+            return location;
+        }
+    }
+}
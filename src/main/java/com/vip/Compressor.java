@@ -0,0 +1,33 @@
+package com.vip;
+
+import java.io.IOException;
+
+/**
+ * Block codec of the compressed JSON output, see {@link BlockSink}. The sink's background thread is the only user of
+ * its instance, so implementations may keep state such as a reused Deflater.
+ *
+ * A custom codec is selected with {@code jdbclog.json.compress=<class name>}; it needs a public no-arg constructor and
+ * an id other than the built-in ones, 0 for stored and 1 for deflate.
+ */
+public interface Compressor {
+
+    /**
+     * @return written into every block frame so a reader can pick the matching codec
+     */
+    byte id();
+
+    /**
+     * @return size of the destination array compress() needs for length input bytes
+     */
+    int maxCompressedLength(int length);
+
+    /**
+     * @return number of bytes written to dst, or -1 when the block doesn't compress into dst; it is stored then
+     */
+    int compress(byte[] src, int length, byte[] dst);
+
+    /**
+     * @param uncompressedLength exact number of bytes to restore into dst
+     */
+    void decompress(byte[] src, int length, byte[] dst, int uncompressedLength) throws IOException;
+}
@@ -0,0 +1,66 @@
+package com.vip;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Raw deflate, without the zlib header and checksum since the block frame carries its own CRC32. The default level 1
+ * is the fastest and still shrinks repeated SQL text several times over.
+ */
+final class DeflateCompressor implements Compressor {
+
+    static final byte ID = 1;
+
+    private final Deflater deflater;
+    private final Inflater inflater = new Inflater(true);
+
+    DeflateCompressor(int level) {
+        deflater = new Deflater(level, true);
+    }
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        // zlib's deflateBound()
+        return length + (length >> 12) + (length >> 14) + (length >> 25) + 64;
+    }
+
+    @Override
+    public int compress(byte[] src, int length, byte[] dst) {
+        deflater.reset();
+        deflater.setInput(src, 0, length);
+        deflater.finish();
+        int n = 0;
+        while (!deflater.finished() && n < dst.length) {
+            n += deflater.deflate(dst, n, dst.length - n);
+        }
+        return deflater.finished() ? n : -1;
+    }
+
+    @Override
+    public void decompress(byte[] src, int length, byte[] dst, int uncompressedLength) throws IOException {
+        inflater.reset();
+        inflater.setInput(src, 0, length);
+        try {
+            int n = 0;
+            while (n < uncompressedLength && !inflater.finished()) {
+                int inflated = inflater.inflate(dst, n, uncompressedLength - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += inflated;
+            }
+            if (n != uncompressedLength) {
+                throw new IOException("deflate block ends after " + n + " of " + uncompressedLength + " bytes");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("corrupt deflate block: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,450 @@
+package com.vip;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fixed size off-heap ring of traced statement events.
+ *
+ * With {@code jdbclog.arena.enabled=true} the executing thread no longer renders and logs the SQL itself. It copies
+ * the SQL id, the JDBC method and the bind values, as typed binary, into a slot of a direct ByteBuffer, and a
+ * daemon thread drains the slots, renders the SQL and logs it exactly as the default mode does. Strings are
+ * encoded to UTF-8 straight into the slot, so a traced execution allocates next to nothing on the heap.
+ *
+ * The ring holds {@code jdbclog.arena.bytes / jdbclog.arena.slotBytes} slots and never grows: when it is full the
+ * event is dropped and counted, and bind values that don't fit in a slot are cut off and shown as '?'.
+ *
+ * Slots are claimed with a CAS on a sequence counter and published with an ordered write of the slot's sequence
+ * number, which the drainer reads before touching the slot.
+ */
+final class EventArena {
+
+    private static final Logger log = LoggerFactory.getLogger(EventArena.class);
+
+    static final EventArena INSTANCE = new EventArena(
+            AgentConfig.getBoolean("arena.enabled", false),
+            AgentConfig.getLong("arena.bytes", 8L * 1024 * 1024),
+            AgentConfig.getInt("arena.slotBytes", 1024));
+
+    // bind value types
+    private static final byte T_NULL = 0;
+    private static final byte T_UNSET = 1;
+    private static final byte T_INT = 2;
+    private static final byte T_LONG = 3;
+    private static final byte T_FLOAT = 4;
+    private static final byte T_DOUBLE = 5;
+    private static final byte T_TRUE = 6;
+    private static final byte T_FALSE = 7;
+    private static final byte T_STRING = 8;
+    private static final byte T_DATE = 9;
+    private static final byte T_TIME = 10;
+    private static final byte T_TIMESTAMP = 11;
+    /**
+     * any other object, stored as its toString() and shown unquoted
+     */
+    private static final byte T_TEXT = 12;
+
+    /**
+     * sql id of a prepared statement whose SQL text is stored inline, the id table being full
+     */
+    static final int INLINE_SQL = -1;
+    /**
+     * sql id of SQL passed to Statement.execute*(String), stored inline and logged as is
+     */
+    static final int PLAIN_SQL = -2;
+    /**
+     * sql id of an event whose inline SQL did not fit in the slot
+     */
+    private static final int NOT_STORED = -3;
+
+    /**
+     * slot header: int length, int sql id (or INLINE_SQL, PLAIN_SQL: SQL text follows), long wall clock millis,
+     * short method index, short arg count
+     */
+    private static final int HEADER = 4 + 4 + 8 + 2 + 2;
+
+    final boolean enabled;
+    private final ByteBuffer arena;
+    private final int slotBytes;
+    private final int slots;
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long consumed;
+    /**
+     * sequence number of the event in each slot, written last by the producer
+     */
+    private final AtomicLongArray published;
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final ConcurrentMap<String, Integer> sqlIds = new ConcurrentHashMap<String, Integer>();
+    private final List<String> sqlById = new ArrayList<String>();
+    private final int maxSqlIds = AgentConfig.getInt("stats.maxTemplates", 10000);
+
+    /**
+     * method names are string constants, the index into this table is what gets stored
+     */
+    private static final List<String> methods = new CopyOnWriteArrayList<String>();
+
+    private EventArena(boolean enabled, long bytes, int slotBytes) {
+        this.enabled = enabled;
+        this.slotBytes = Math.max(HEADER + 64, slotBytes);
+        long maxSlots = Integer.MAX_VALUE / this.slotBytes;
+        this.slots = enabled ? (int) Math.max(1, Math.min(maxSlots, bytes / this.slotBytes)) : 0;
+        this.arena = enabled ? ByteBuffer.allocateDirect(slots * this.slotBytes) : null;
+        this.published = new AtomicLongArray(slots);
+        for (int i = 0; i < slots; i++) {
+            published.set(i, -1L);
+        }
+        if (enabled) {
+            Thread drainer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            }, "jdbc-log-arena-drainer");
+            drainer.setDaemon(true);
+            drainer.start();
+        }
+    }
+
+    /**
+     * Id of a prepared SQL string, resolved once per prepared statement. Returns INLINE_SQL once the table is full,
+     * those statements carry their SQL text inline.
+     */
+    int sqlId(String sql) {
+        if (!enabled) {
+            return INLINE_SQL;
+        }
+        Integer id = sqlIds.get(sql);
+        if (id != null) {
+            return id;
+        }
+        synchronized (sqlById) {
+            id = sqlIds.get(sql);
+            if (id == null) {
+                if (sqlById.size() >= maxSqlIds) {
+                    return INLINE_SQL;
+                }
+                id = sqlById.size();
+                sqlById.add(sql);
+                sqlIds.put(sql, id);
+            }
+            return id;
+        }
+    }
+
+    private static short methodIndex(String methodCall) {
+        for (int i = 0, n = methods.size(); i < n; i++) {
+            if (methods.get(i) == methodCall) {
+                return (short) i;
+            }
+        }
+        // first use of this method name, only happens a handful of times
+        synchronized (methods) {
+            int i = methods.indexOf(methodCall);
+            if (i < 0) {
+                methods.add(methodCall);
+                i = methods.size() - 1;
+            }
+            return (short) i;
+        }
+    }
+
+    /**
+     * Copy an execution into the arena. Never blocks, drops the event when the arena is full.
+     *
+     * @param sqlId      id from {@link #sqlId(String)}, or PLAIN_SQL for Statement SQL
+     * @param sql        the SQL, only read when sqlId is INLINE_SQL or PLAIN_SQL
+     * @param methodCall JDBC method, must be a string constant
+     * @param args       raw bind variables as captured by PreparedStatementProxy
+     */
+    void publish(int sqlId, String sql, String methodCall, Object[] args, int argCount) {
+        long seq;
+        do {
+            seq = claimed.get();
+            if (seq - consumed >= slots) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!claimed.compareAndSet(seq, seq + 1));
+
+        int base = (int) (seq % slots) * slotBytes;
+        int end = base + slotBytes;
+        int pos = base + HEADER;
+        short written = 0;
+        try {
+            if (sqlId < 0) {
+                pos = putString(pos, end, sql);
+            }
+            for (int i = 0; i < argCount && pos > 0; i++) {
+                int next = putArg(pos, end, args[i]);
+                if (next < 0) {
+                    break;
+                }
+                pos = next;
+                written++;
+            }
+        } catch (RuntimeException e) {
+            // whatever goes wrong, the claimed slot must still be published
+            pos = -1;
+        }
+        if (pos < 0) {
+            // inline SQL did not fit
+            pos = base + HEADER;
+            sqlId = NOT_STORED;
+            written = 0;
+        }
+        arena.putInt(base, pos - base);
+        arena.putInt(base + 4, sqlId);
+        arena.putLong(base + 8, System.currentTimeMillis());
+        arena.putShort(base + 16, methodIndex(methodCall));
+        arena.putShort(base + 18, written);
+        published.lazySet((int) (seq % slots), seq);
+    }
+
+    /**
+     * @return position after the value, or -1 when it does not fit before end
+     */
+    private int putArg(int pos, int end, Object arg) {
+        if (arg == null) {
+            return put(pos, end, T_UNSET);
+        }
+        if (arg == PreparedStatementProxy.NULL_ARG) {
+            return put(pos, end, T_NULL);
+        }
+        if (arg instanceof Integer || arg instanceof Short || arg instanceof Byte) {
+            if (pos + 5 > end) {
+                return -1;
+            }
+            arena.put(pos, T_INT);
+            arena.putInt(pos + 1, ((Number) arg).intValue());
+            return pos + 5;
+        }
+        if (arg instanceof Long) {
+            return putLong(pos, end, T_LONG, (Long) arg);
+        }
+        if (arg instanceof Double) {
+            return putLong(pos, end, T_DOUBLE, Double.doubleToRawLongBits((Double) arg));
+        }
+        if (arg instanceof Float) {
+            if (pos + 5 > end) {
+                return -1;
+            }
+            arena.put(pos, T_FLOAT);
+            arena.putFloat(pos + 1, (Float) arg);
+            return pos + 5;
+        }
+        if (arg instanceof Boolean) {
+            return put(pos, end, (Boolean) arg ? T_TRUE : T_FALSE);
+        }
+        if (arg instanceof String) {
+            int p = put(pos, end, T_STRING);
+            return p < 0 ? -1 : putString(p, end, (String) arg);
+        }
+        if (arg instanceof Date) {
+            return putLong(pos, end, T_DATE, ((Date) arg).getTime());
+        }
+        if (arg instanceof Time) {
+            return putLong(pos, end, T_TIME, ((Time) arg).getTime());
+        }
+        if (arg instanceof Timestamp) {
+            int p = putLong(pos, end, T_TIMESTAMP, ((Timestamp) arg).getTime());
+            if (p < 0 || p + 4 > end) {
+                return -1;
+            }
+            arena.putInt(p, ((Timestamp) arg).getNanos());
+            return p + 4;
+        }
+        int p = put(pos, end, T_TEXT);
+        // a toString() that throws costs this argument its text, not the whole event
+        return p < 0 ? -1 : putString(p, end,
+                arg instanceof BigDecimal ? arg.toString() : PreparedStatementProxy.safeToString(arg));
+    }
+
+    private int put(int pos, int end, byte type) {
+        if (pos + 1 > end) {
+            return -1;
+        }
+        arena.put(pos, type);
+        return pos + 1;
+    }
+
+    private int putLong(int pos, int end, byte type, long value) {
+        if (pos + 9 > end) {
+            return -1;
+        }
+        arena.put(pos, type);
+        arena.putLong(pos + 1, value);
+        return pos + 9;
+    }
+
+    /**
+     * int byte length followed by UTF-8, encoded char by char without a temporary byte[].
+     */
+    private int putString(int pos, int end, String s) {
+        int p = pos + 4;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (p + 1 > end) {
+                    return -1;
+                }
+                arena.put(p++, (byte) c);
+            } else if (c < 0x800) {
+                if (p + 2 > end) {
+                    return -1;
+                }
+                arena.put(p++, (byte) (0xC0 | (c >> 6)));
+                arena.put(p++, (byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                if (p + 4 > end) {
+                    return -1;
+                }
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                arena.put(p++, (byte) (0xF0 | (cp >> 18)));
+                arena.put(p++, (byte) (0x80 | ((cp >> 12) & 0x3F)));
+                arena.put(p++, (byte) (0x80 | ((cp >> 6) & 0x3F)));
+                arena.put(p++, (byte) (0x80 | (cp & 0x3F)));
+            } else {
+                if (p + 3 > end) {
+                    return -1;
+                }
+                arena.put(p++, (byte) (0xE0 | (c >> 12)));
+                arena.put(p++, (byte) (0x80 | ((c >> 6) & 0x3F)));
+                arena.put(p++, (byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        if (pos + 4 > end) {
+            return -1;
+        }
+        arena.putInt(pos, p - pos - 4);
+        return p;
+    }
+
+    private void drain() {
+        byte[] scratch = new byte[slotBytes];
+        Object[] args = new Object[16];
+        long seq = 0;
+        while (true) {
+            try {
+                int slot = (int) (seq % slots);
+                if (published.get(slot) != seq) {
+                    long lost = dropped.getAndSet(0);
+                    if (lost > 0) {
+                        log.warn("event arena full, dropped " + lost + " events");
+                    }
+                    LockSupport.parkNanos(1000000L);
+                    continue;
+                }
+                int base = slot * slotBytes;
+                int length = arena.getInt(base);
+                // copy out and free the slot before the (slow) rendering and logging
+                for (int i = 0; i < length; i++) {
+                    scratch[i] = arena.get(base + i);
+                }
+                consumed = ++seq;
+                args = render(ByteBuffer.wrap(scratch, 0, length), args);
+            } catch (Throwable t) {
+                log.debug("event arena drain failed: " + t.getMessage());
+            }
+        }
+    }
+
+    private Object[] render(ByteBuffer event, Object[] args) {
+        int sqlId = event.getInt(4);
+        String methodCall = methods.get(event.getShort(16));
+        int argCount = event.getShort(18);
+        event.position(HEADER);
+        String sql;
+        if (sqlId >= 0) {
+            synchronized (sqlById) {
+                sql = sqlById.get(sqlId);
+            }
+        } else if (sqlId == INLINE_SQL || sqlId == PLAIN_SQL) {
+            sql = getString(event);
+        } else {
+            sql = "<SQL could not be stored in the event arena>";
+        }
+        if (args.length < argCount) {
+            args = new Object[argCount];
+        }
+        for (int i = 0; i < argCount; i++) {
+            args[i] = getArg(event);
+        }
+        PreparedStatementProxy.reportSql(
+                sqlId == PLAIN_SQL ? sql : PreparedStatementProxy.renderSql(sql, args, argCount, null), methodCall);
+        return args;
+    }
+
+    private static Object getArg(ByteBuffer event) {
+        byte type = event.get();
+        switch (type) {
+            case T_NULL:
+                return PreparedStatementProxy.NULL_ARG;
+            case T_INT:
+                return event.getInt();
+            case T_LONG:
+                return event.getLong();
+            case T_FLOAT:
+                return event.getFloat();
+            case T_DOUBLE:
+                return Double.longBitsToDouble(event.getLong());
+            case T_TRUE:
+                return Boolean.TRUE;
+            case T_FALSE:
+                return Boolean.FALSE;
+            case T_STRING:
+                return getString(event);
+            case T_DATE:
+                return new Date(event.getLong());
+            case T_TIME:
+                return new Time(event.getLong());
+            case T_TIMESTAMP:
+                Timestamp ts = new Timestamp(event.getLong());
+                ts.setNanos(event.getInt());
+                return ts;
+            case T_TEXT:
+                return new Text(getString(event));
+            default:
+                return null;
+        }
+    }
+
+    private static String getString(ByteBuffer event) {
+        int length = event.getInt();
+        String s = new String(event.array(), event.arrayOffset() + event.position(), length,
+                StandardCharsets.UTF_8);
+        event.position(event.position() + length);
+        return s;
+    }
+
+    /**
+     * Decoded T_TEXT value, formats as its text.
+     */
+    private static final class Text {
+        private final String text;
+
+        Text(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+}
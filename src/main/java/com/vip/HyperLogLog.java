@@ -0,0 +1,67 @@
+package com.vip;
+
+/**
+ * Estimates the number of distinct values of a stream in 2^precision bytes.
+ *
+ * Values are added as 64 bit hashes. Each register keeps the longest run of leading zeros seen among the hashes that
+ * select it; the standard error of the estimate is about 1.04 / sqrt(2^precision), 6.5% for the default precision 8.
+ * Registers are updated without locking: two threads racing on the same register may lose the smaller of two
+ * updates, which at worst lowers the estimate slightly. Sketches of the same precision merge by taking the maximum of
+ * every register.
+ */
+final class HyperLogLog {
+
+    private final int precision;
+    private final byte[] registers;
+
+    HyperLogLog(int precision) {
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    int precision() {
+        return precision;
+    }
+
+    void add(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        byte rank = (byte) (Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+    }
+
+    void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("cannot merge precision " + other.precision + " into " + precision);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // few values, linear counting is more accurate
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    byte[] registers() {
+        return registers;
+    }
+}
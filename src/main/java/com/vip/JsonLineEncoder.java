@@ -0,0 +1,407 @@
+package com.vip;
+
+import java.sql.Date;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * Streaming encoder of one JSON line into a reusable byte buffer, UTF-8 encoded and escaped as it goes.
+ *
+ * Strings, integers and timestamps are written char by char and digit by digit, nothing is formatted to an
+ * intermediate String; only floating point numbers and objects the encoder knows nothing about go through their
+ * toString(), and a toString() that throws is written as a placeholder. Bind variables look as they do in the banner
+ * output of {@link PreparedStatementProxy#formatParameterObject(Object)}: a java.sql.Date as "MM/dd/yyyy HH:mm:ss.SSS",
+ * Timestamp and Time as their toString(), e.g. 2024-05-01 12:30:00.25 and 12:30:00. One encoder is used by one
+ * thread at a time.
+ */
+final class JsonLineEncoder {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * a buffer grown beyond this by a huge statement is dropped after use instead of being kept by the thread
+     */
+    private static final int RETAINED_CAPACITY = 64 * 1024;
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    /**
+     * zone of the SQL date literals, as shown by the default banner output
+     */
+    private static final TimeZone zone = TimeZone.getDefault();
+
+    // date and time layouts
+    private static final int ISO = 0;
+    private static final int SQL_DATE = 1;
+    private static final int TIMESTAMP = 2;
+
+    private byte[] buf = new byte[INITIAL_CAPACITY];
+    private int pos;
+
+    /**
+     * the date part of each layout changes once a day, its bytes are reused until then
+     */
+    private final long[] cachedDays = {Long.MIN_VALUE, Long.MIN_VALUE, Long.MIN_VALUE};
+    private final byte[][] cachedDates = new byte[3][];
+
+    void reset() {
+        if (buf.length > RETAINED_CAPACITY) {
+            buf = new byte[INITIAL_CAPACITY];
+        }
+        pos = 0;
+    }
+
+    byte[] buffer() {
+        return buf;
+    }
+
+    int length() {
+        return pos;
+    }
+
+    /**
+     * Append ASCII text as is, for field names and punctuation.
+     */
+    @SuppressWarnings("deprecation")
+    JsonLineEncoder raw(String ascii) {
+        int n = ascii.length();
+        ensure(n);
+        // copies the low byte of each char without encoding, exact for ASCII
+        ascii.getBytes(0, n, buf, pos);
+        pos += n;
+        return this;
+    }
+
+    JsonLineEncoder raw(char c) {
+        ensure(1);
+        buf[pos++] = (byte) c;
+        return this;
+    }
+
+    JsonLineEncoder number(long value) {
+        ensure(20);
+        if (value < 0) {
+            if (value == Long.MIN_VALUE) {
+                return raw("-9223372036854775808");
+            }
+            buf[pos++] = '-';
+            value = -value;
+        }
+        int start = pos;
+        do {
+            buf[pos++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        reverse(start, pos - 1);
+        return this;
+    }
+
+    /**
+     * Append a quoted JSON string, or null.
+     */
+    JsonLineEncoder string(String s) {
+        if (s == null) {
+            return raw("null");
+        }
+        raw('"');
+        escaped(s, 0, s.length());
+        return raw('"');
+    }
+
+    /**
+     * Append the escaped chars of s, without quotes.
+     */
+    @SuppressWarnings("deprecation")
+    JsonLineEncoder escaped(String s, int from, int to) {
+        int i = from;
+        while (i < to) {
+            int run = i;
+            while (run < to && plain(s.charAt(run))) {
+                run++;
+            }
+            if (run > i) {
+                // a run of printable ASCII is copied in one go
+                ensure(run - i);
+                s.getBytes(i, run, buf, pos);
+                pos += run - i;
+                i = run;
+                if (i == to) {
+                    break;
+                }
+            }
+            char c = s.charAt(i++);
+            if (c < 0x80) {
+                escapeAscii(c);
+            } else if (Character.isHighSurrogate(c) && i < to && Character.isLowSurrogate(s.charAt(i))) {
+                utf8(Character.toCodePoint(c, s.charAt(i++)));
+            } else if (Character.isSurrogate(c)) {
+                raw('?');
+            } else {
+                utf8(c);
+            }
+        }
+        return this;
+    }
+
+    private static boolean plain(char c) {
+        return c >= 0x20 && c < 0x80 && c != '"' && c != '\\';
+    }
+
+    private void escapeAscii(char c) {
+        ensure(6);
+        buf[pos++] = '\\';
+        switch (c) {
+            case '"':
+                buf[pos++] = '"';
+                break;
+            case '\\':
+                buf[pos++] = '\\';
+                break;
+            case '\n':
+                buf[pos++] = 'n';
+                break;
+            case '\r':
+                buf[pos++] = 'r';
+                break;
+            case '\t':
+                buf[pos++] = 't';
+                break;
+            case '\b':
+                buf[pos++] = 'b';
+                break;
+            case '\f':
+                buf[pos++] = 'f';
+                break;
+            default:
+                buf[pos++] = 'u';
+                buf[pos++] = '0';
+                buf[pos++] = '0';
+                buf[pos++] = HEX[c >> 4];
+                buf[pos++] = HEX[c & 0xf];
+        }
+    }
+
+    private void utf8(int codePoint) {
+        ensure(4);
+        if (codePoint < 0x800) {
+            buf[pos++] = (byte) (0xc0 | codePoint >> 6);
+        } else if (codePoint < 0x10000) {
+            buf[pos++] = (byte) (0xe0 | codePoint >> 12);
+            buf[pos++] = (byte) (0x80 | (codePoint >> 6 & 0x3f));
+        } else {
+            buf[pos++] = (byte) (0xf0 | codePoint >> 18);
+            buf[pos++] = (byte) (0x80 | (codePoint >> 12 & 0x3f));
+            buf[pos++] = (byte) (0x80 | (codePoint >> 6 & 0x3f));
+        }
+        buf[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+    }
+
+    /**
+     * Append a quoted ISO-8601 UTC timestamp, e.g. "2024-05-01T12:30:00.250Z".
+     */
+    JsonLineEncoder isoTimestamp(long millis) {
+        raw('"');
+        dateTime(millis, ISO, 0);
+        return raw('"');
+    }
+
+    /**
+     * Append a bind variable as a typed JSON value: numbers and booleans bare, everything else as a string.
+     */
+    JsonLineEncoder value(Object arg) {
+        if (arg == null) {
+            // not bound
+            return raw("\"?\"");
+        } else if (arg == PreparedStatementProxy.NULL_ARG) {
+            return raw("null");
+        } else if (arg instanceof Integer || arg instanceof Long || arg instanceof Short || arg instanceof Byte) {
+            return number(((Number) arg).longValue());
+        } else if (arg instanceof Boolean) {
+            return raw((Boolean) arg ? "true" : "false");
+        } else if (arg instanceof Double || arg instanceof Float) {
+            double d = ((Number) arg).doubleValue();
+            return Double.isNaN(d) || Double.isInfinite(d) ? string(arg.toString()) : raw(arg.toString());
+        } else if (arg instanceof Date || arg instanceof Timestamp || arg instanceof Time) {
+            raw('"');
+            temporal(arg);
+            return raw('"');
+        } else {
+            return string(text(arg));
+        }
+    }
+
+    /**
+     * Append the escaped SQL with every '?' replaced by its bind variable as a SQL literal, formatted like
+     * {@link PreparedStatementProxy#formatParameterObject(Object)}, without quotes.
+     */
+    JsonLineEncoder renderedSql(String sql, Object[] args, int argCount) {
+        int last = 0;
+        int arg = 0;
+        for (int q = sql.indexOf('?'); q >= 0; q = sql.indexOf('?', last)) {
+            escaped(sql, last, q);
+            sqlLiteral(arg < argCount ? args[arg] : null);
+            arg++;
+            last = q + 1;
+        }
+        return escaped(sql, last, sql.length());
+    }
+
+    private void sqlLiteral(Object arg) {
+        if (arg == null) {
+            raw('?');
+        } else if (arg == PreparedStatementProxy.NULL_ARG) {
+            raw("NULL");
+        } else if (arg instanceof Integer || arg instanceof Long || arg instanceof Short || arg instanceof Byte) {
+            number(((Number) arg).longValue());
+        } else if (arg instanceof String) {
+            String s = (String) arg;
+            raw('\'');
+            int last = 0;
+            for (int quote = s.indexOf('\''); quote >= 0; quote = s.indexOf('\'', last)) {
+                escaped(s, last, quote + 1);
+                raw('\'');
+                last = quote + 1;
+            }
+            escaped(s, last, s.length());
+            raw('\'');
+        } else if (arg instanceof Date) {
+            // the only quoted one, as in formatParameterObject
+            raw('\'');
+            temporal(arg);
+            raw('\'');
+        } else if (arg instanceof Timestamp || arg instanceof Time) {
+            temporal(arg);
+        } else {
+            String s = text(arg);
+            escaped(s, 0, s.length());
+        }
+    }
+
+    /**
+     * A java.sql.Date, Timestamp or Time in the default zone, without quotes.
+     */
+    private void temporal(Object arg) {
+        if (arg instanceof Date) {
+            dateTime(((Date) arg).getTime(), SQL_DATE, 0);
+        } else if (arg instanceof Timestamp) {
+            dateTime(((Timestamp) arg).getTime(), TIMESTAMP, ((Timestamp) arg).getNanos());
+        } else {
+            long millis = ((Time) arg).getTime();
+            int ms = (int) Math.floorMod(millis + zone.getOffset(millis), 86400000L);
+            ensure(8);
+            time(ms);
+        }
+    }
+
+    private static String text(Object arg) {
+        return PreparedStatementProxy.safeToString(arg);
+    }
+
+    /**
+     * @param layout ISO for "yyyy-MM-ddTHH:mm:ss.SSSZ" in UTC; SQL_DATE for "MM/dd/yyyy HH:mm:ss.SSS" and TIMESTAMP for
+     *               "yyyy-MM-dd HH:mm:ss.f", as Timestamp.toString(), in the default zone
+     * @param nanos  fraction of the second of a TIMESTAMP
+     */
+    private void dateTime(long millis, int layout, int nanos) {
+        if (layout != ISO) {
+            millis += zone.getOffset(millis);
+        }
+        long days = Math.floorDiv(millis, 86400000L);
+        int ms = (int) Math.floorMod(millis, 86400000L);
+        if (days == cachedDays[layout]) {
+            byte[] date = cachedDates[layout];
+            ensure(date.length);
+            System.arraycopy(date, 0, buf, pos, date.length);
+            pos += date.length;
+        } else {
+            int start = pos;
+            date(days, layout);
+            cachedDays[layout] = days;
+            cachedDates[layout] = Arrays.copyOfRange(buf, start, pos);
+        }
+        ensure(23);
+        time(ms);
+        if (layout == TIMESTAMP) {
+            // nanoseconds without trailing zeros, at least one digit
+            buf[pos++] = '.';
+            int digits = 9;
+            while (digits > 1 && nanos % 10 == 0) {
+                nanos /= 10;
+                digits--;
+            }
+            digits(nanos, digits);
+            return;
+        }
+        buf[pos++] = '.';
+        buf[pos++] = (byte) ('0' + ms % 1000 / 100);
+        twoDigits(ms % 100);
+        if (layout == ISO) {
+            buf[pos++] = 'Z';
+        }
+    }
+
+    /**
+     * HH:mm:ss of a millisecond of the day, 8 bytes must be free
+     */
+    private void time(int ms) {
+        twoDigits(ms / 3600000);
+        buf[pos++] = ':';
+        twoDigits(ms / 60000 % 60);
+        buf[pos++] = ':';
+        twoDigits(ms / 1000 % 60);
+    }
+
+    /**
+     * Civil date from days since the epoch, proleptic Gregorian calendar.
+     */
+    private void date(long days, int layout) {
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        long day = doy - (153 * mp + 2) / 5 + 1;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+        if (layout == SQL_DATE) {
+            digits(month, 2).raw('/').digits(day, 2).raw('/').digits(year, 4).raw(' ');
+        } else {
+            digits(year, 4).raw('-').digits(month, 2).raw('-').digits(day, 2).raw(layout == ISO ? 'T' : ' ');
+        }
+    }
+
+    private void twoDigits(int value) {
+        buf[pos++] = (byte) ('0' + value / 10);
+        buf[pos++] = (byte) ('0' + value % 10);
+    }
+
+    private JsonLineEncoder digits(long value, int width) {
+        if (value < 0) {
+            return number(value);
+        }
+        ensure(Math.max(width, 20));
+        int start = pos;
+        do {
+            buf[pos++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0 || pos - start < width);
+        reverse(start, pos - 1);
+        return this;
+    }
+
+    private void reverse(int from, int to) {
+        while (from < to) {
+            byte b = buf[from];
+            buf[from++] = buf[to];
+            buf[to--] = b;
+        }
+    }
+
+    private void ensure(int n) {
+        if (pos + n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+        }
+    }
+}
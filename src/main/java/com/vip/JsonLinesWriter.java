@@ -0,0 +1,270 @@
+package com.vip;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Structured output mode: one JSON object per traced execution, one per line, instead of the "+++++" banner log.
+ *
+ * Enabled with {@code jdbclog.output=json}; lines go to {@code jdbclog.json.file} (appended) or to standard out.
+ * <pre>
+ * {"ts":"2024-05-01T12:30:00.250Z","template":12,"thread":"http-nio-8080-exec-3","op":"executeQuery",
+ *  "sql":"select * from t where id = ?","params":[42],"durationUs":830,"rows":-1}
+ * </pre>
+ * A failed execution adds {@code "error":{"class":..,"sqlState":..,"code":..,"message":..}}. With
+ * {@code jdbclog.json.renderSql=true} "sql" has the bind variables filled in, as the banner shows it.
+ *
+ * The line is written after the statement ran, so it carries duration, rows and error. Each thread encodes into its
+ * own reused {@link JsonLineEncoder}, then copies the bytes into a shared buffer under a lock. When the buffer is full,
+ * and every {@code jdbclog.json.flushIntervalMs}, it is swapped for a spare under that lock and written outside it,
+ * so appending threads only wait for file IO when the spare is still being written.
+ *
+ * With {@code jdbclog.json.compress=deflate} (or the class name of a {@link Compressor}) the lines are copied into
+ * blocks of {@code jdbclog.json.blockKb} KB instead, compressed on a background thread and written as checksummed
+ * frames, see {@link BlockSink}; {@link BlockInputStream} turns such a file back into lines. Compression needs
+ * {@code jdbclog.json.file}, binary frames are never written to standard out.
+ */
+final class JsonLinesWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(JsonLinesWriter.class);
+
+    static final JsonLinesWriter INSTANCE = new JsonLinesWriter(
+            "json".equalsIgnoreCase(AgentConfig.getString("output", "banner")),
+            AgentConfig.getString("json.file", null),
+            AgentConfig.getBoolean("json.renderSql", false),
+            AgentConfig.getLong("json.flushIntervalMs", 1000L),
+            BlockSink.compressor(AgentConfig.getString("json.compress", "none"),
+                    AgentConfig.getInt("json.compressLevel", 1)));
+
+    final boolean enabled;
+    private final boolean renderSql;
+    private final OutputStream out;
+    /**
+     * compressed output, null for plain lines
+     */
+    final BlockSink blocks;
+    /**
+     * lines not written yet, guarded by lock
+     */
+    private byte[] buffer = new byte[64 * 1024];
+    private int used;
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * the buffer not being filled, guarded by writeLock, which also serializes writes to out
+     */
+    private byte[] spare = new byte[64 * 1024];
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final AtomicLong failedWrites = new AtomicLong();
+
+    private final ThreadLocal<JsonLineEncoder> encoders = new ThreadLocal<JsonLineEncoder>() {
+        @Override
+        protected JsonLineEncoder initialValue() {
+            return new JsonLineEncoder();
+        }
+    };
+
+    private JsonLinesWriter(boolean enabled, String path, boolean renderSql, final long flushIntervalMs,
+                            Compressor compressor) {
+        OutputStream stream = null;
+        if (enabled) {
+            try {
+                stream = path != null ? new FileOutputStream(path, true) : new FileOutputStream(FileDescriptor.out);
+            } catch (IOException e) {
+                log.warn("can't open JSON output " + path + ", falling back to the banner log: " + e);
+            }
+        }
+        this.enabled = stream != null;
+        this.out = stream;
+        this.renderSql = renderSql;
+        if (this.enabled && compressor != null && path == null) {
+            log.warn("jdbclog.json.compress needs jdbclog.json.file, writing plain JSON lines to standard out");
+            compressor = null;
+        }
+        this.blocks = this.enabled && compressor != null
+                ? new BlockSink(stream, compressor, AgentConfig.getInt("json.blockKb", 256) * 1024,
+                AgentConfig.getInt("json.blockBuffers", 8))
+                : null;
+        if (this.enabled) {
+            Thread flusher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (true) {
+                        try {
+                            Thread.sleep(Math.max(10, flushIntervalMs));
+                            flush();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                }
+            }, "jdbc-log-json-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    if (blocks != null) {
+                        blocks.close(5000);
+                    } else {
+                        flush();
+                    }
+                }
+            }, "jdbc-log-json-flush-final"));
+        }
+    }
+
+    /**
+     * Write the line of one finished execution.
+     *
+     * @param sql      SQL as prepared or as passed to Statement.execute*(String)
+     * @param args     raw bind variables, argCount 0 for a plain statement
+     * @param rows     affected rows, or -1 when unknown
+     * @param failure  exception thrown by the driver, or null
+     */
+    void write(SqlTemplate template, String sql, String operation, Object[] args, int argCount, long startMillis,
+               long durationNanos, long rows, Throwable failure) {
+        JsonLineEncoder line = encoders.get();
+        line.reset();
+        encode(line, renderSql, template, sql, operation, args, argCount, startMillis, durationNanos, rows, failure);
+        append(line.buffer(), line.length());
+    }
+
+    /**
+     * Encode the line of one execution, newline included, see {@link #write}.
+     */
+    static void encode(JsonLineEncoder line, boolean renderSql, SqlTemplate template, String sql, String operation,
+                       Object[] args, int argCount, long startMillis, long durationNanos, long rows,
+                       Throwable failure) {
+        line.raw("{\"ts\":").isoTimestamp(startMillis)
+                .raw(",\"template\":").number(template.id)
+                .raw(",\"thread\":").string(Thread.currentThread().getName())
+                .raw(",\"op\":").string(operation)
+                .raw(",\"sql\":");
+        if (renderSql) {
+            line.raw('"').renderedSql(sql, args, argCount).raw('"');
+        } else {
+            line.string(sql);
+        }
+        line.raw(",\"params\":[");
+        for (int i = 0; i < argCount; i++) {
+            if (i > 0) {
+                line.raw(',');
+            }
+            line.value(args[i]);
+        }
+        line.raw("],\"durationUs\":").number(durationNanos / 1000)
+                .raw(",\"rows\":").number(rows);
+        if (failure != null) {
+            line.raw(",\"error\":{\"class\":").string(failure.getClass().getName());
+            if (failure instanceof SQLException) {
+                line.raw(",\"sqlState\":").string(((SQLException) failure).getSQLState())
+                        .raw(",\"code\":").number(((SQLException) failure).getErrorCode());
+            }
+            line.raw(",\"message\":").string(failure.getMessage()).raw('}');
+        }
+        line.raw("}\n");
+    }
+
+    private void append(byte[] bytes, int length) {
+        if (blocks != null) {
+            blocks.write(bytes, length);
+            return;
+        }
+        lock.lock();
+        try {
+            if (used + length <= buffer.length) {
+                System.arraycopy(bytes, 0, buffer, used, length);
+                used += length;
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        writeLock.lock();
+        try {
+            int full;
+            lock.lock();
+            try {
+                if (used + length <= buffer.length) {
+                    // written while we waited for writeLock
+                    System.arraycopy(bytes, 0, buffer, used, length);
+                    used += length;
+                    return;
+                }
+                full = swap();
+                if (length <= buffer.length) {
+                    System.arraycopy(bytes, 0, buffer, 0, length);
+                    used = length;
+                    length = 0;
+                }
+            } finally {
+                lock.unlock();
+            }
+            out.write(spare, 0, full);
+            if (length > 0) {
+                // longer than the buffer
+                out.write(bytes, 0, length);
+            }
+        } catch (IOException e) {
+            writeFailed(e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    void flush() {
+        if (blocks != null) {
+            blocks.flush();
+            return;
+        }
+        writeLock.lock();
+        try {
+            int full;
+            lock.lock();
+            try {
+                full = swap();
+            } finally {
+                lock.unlock();
+            }
+            if (full > 0) {
+                out.write(spare, 0, full);
+            }
+            out.flush();
+        } catch (IOException e) {
+            writeFailed(e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Make the spare the buffer being filled, called holding both locks.
+     *
+     * @return number of bytes to write from spare, the former buffer
+     */
+    private int swap() {
+        int full = used;
+        if (full > 0) {
+            byte[] filled = buffer;
+            buffer = spare;
+            spare = filled;
+            used = 0;
+        }
+        return full;
+    }
+
+    private void writeFailed(IOException e) {
+        if (failedWrites.getAndIncrement() == 0) {
+            log.warn("writing JSON output failed, further failures are only counted: " + e);
+        }
+    }
+}
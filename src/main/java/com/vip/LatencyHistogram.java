@@ -0,0 +1,106 @@
+package com.vip;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear latency histogram with a fixed number of buckets.
+ *
+ * Every power of two range of nanoseconds is split into 16 linear sub buckets, so a recorded value is off by at
+ * most 1/16 (~6%) and the whole range up to ~2^41 ns (about 36 minutes) fits in 608 counters. Recording is a single
+ * atomic increment; histograms of the same layout merge by adding their counters.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 40;
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 1) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    void record(long nanos) {
+        counts.incrementAndGet(bucket(nanos));
+    }
+
+    void merge(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+    }
+
+    void add(int bucket, long count) {
+        counts.addAndGet(bucket, count);
+    }
+
+    long count(int bucket) {
+        return counts.get(bucket);
+    }
+
+    long totalCount() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * @param quantile between 0 and 1, e.g. 0.99
+     * @return upper bound in nanoseconds of the bucket holding the quantile, 0 when empty
+     */
+    long percentile(double quantile) {
+        long total = totalCount();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= Math.max(1, rank)) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) Math.max(0, nanos);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+
+    /**
+     * e.g. "count=120 p50=1.2ms p90=3.4ms p99=12ms p99.9=40ms max=52ms"
+     */
+    String summary() {
+        return "count=" + totalCount()
+                + " p50=" + millis(percentile(0.5))
+                + " p90=" + millis(percentile(0.9))
+                + " p99=" + millis(percentile(0.99))
+                + " p99.9=" + millis(percentile(0.999))
+                + " max=" + millis(percentile(1.0));
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3fms", nanos / 1e6);
+    }
+}
@@ -5,6 +5,7 @@ import java.lang.instrument.Instrumentation;
 public class MysqlJdbcLogAgent {
 
     public static void premain(String agentArgs, Instrumentation inst) {
+        AgentConfig.load(agentArgs);
         inst.addTransformer(new PrepareStatementTransformer());
     }
 
@@ -0,0 +1,165 @@
+package com.vip;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the agent's own cost within a budget relative to the time spent in the JDBC driver. Off unless
+ * {@code jdbclog.governor.enabled=true}: a degraded level leaves statements out of the log, which must not come as a
+ * surprise to whoever reads it.
+ *
+ * Every execution reports how long the agent spent on it - template lookup, tracing, rendering, spans and statistics
+ * - and how long the real driver call took. Every {@code jdbclog.governor.intervalMs} the two are compared: when the
+ * agent used more than {@code jdbclog.governor.budgetPercent} of the driver time, tracing steps down one level,
+ * FULL -> SAMPLED -> METRICS_ONLY. After {@code jdbclog.governor.recoverIntervals} intervals in a row below half the
+ * budget it steps back up. A step down soon after a step up doubles the quiet intervals needed next time, so a load
+ * that only fits the budget when degraded does not flap between levels.
+ *
+ * FULL traces every statement, SAMPLED one in {@code jdbclog.governor.sampleRate}, METRICS_ONLY keeps nothing but the
+ * per template counters. Binding parameters is not timed: it is a plain array store and timing it would cost more than
+ * it measures.
+ */
+final class OverheadGovernor {
+
+    private static final Logger log = LoggerFactory.getLogger(OverheadGovernor.class);
+
+    static final int FULL = 0;
+    static final int SAMPLED = 1;
+    static final int METRICS_ONLY = 2;
+    private static final String[] LEVEL_NAMES = {"FULL", "SAMPLED", "METRICS_ONLY"};
+
+    static final OverheadGovernor INSTANCE = new OverheadGovernor(
+            AgentConfig.getBoolean("governor.enabled", false),
+            AgentConfig.getDouble("governor.budgetPercent", 2.0),
+            AgentConfig.getInt("governor.sampleRate", 100),
+            AgentConfig.getLong("governor.intervalMs", 1000L),
+            AgentConfig.getInt("governor.recoverIntervals", 5));
+
+    private static final int MAX_BACKOFF = 64;
+
+    final boolean enabled;
+    private final double budgetPercent;
+    private final int sampleRate;
+    private final int recoverIntervals;
+
+    private volatile int level = FULL;
+    private volatile double lastOverheadPercent;
+
+    private final LongAdder agentNanos = new LongAdder();
+    private final LongAdder driverNanos = new LongAdder();
+    final AtomicLong stepDowns = new AtomicLong();
+    final AtomicLong stepUps = new AtomicLong();
+    /**
+     * executions that were not traced because tracing was degraded
+     */
+    final LongAdder untraced = new LongAdder();
+
+    // only touched by the governor thread
+    private int quietIntervals;
+    private int requiredQuietIntervals;
+    private long intervalsSinceStepUp = Long.MAX_VALUE / 2;
+
+    private OverheadGovernor(boolean enabled, double budgetPercent, int sampleRate, final long intervalMs,
+                             int recoverIntervals) {
+        this.enabled = enabled && budgetPercent > 0 && intervalMs > 0;
+        this.budgetPercent = budgetPercent;
+        this.sampleRate = Math.max(1, sampleRate);
+        this.recoverIntervals = Math.max(1, recoverIntervals);
+        this.requiredQuietIntervals = this.recoverIntervals;
+        if (this.enabled) {
+            log.info(String.format("SQL tracing overhead budget %.2f%% of JDBC time, over it tracing is sampled or"
+                    + " stopped; every change of level is logged", budgetPercent));
+            Thread governor = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (true) {
+                        try {
+                            Thread.sleep(intervalMs);
+                            tick();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        } catch (Throwable t) {
+                            log.debug("overhead governor failed: " + t.getMessage());
+                        }
+                    }
+                }
+            }, "jdbc-log-overhead-governor");
+            governor.setDaemon(true);
+            governor.start();
+        }
+    }
+
+    /**
+     * @return true when the current execution may be traced (logged, published, exported as a span)
+     */
+    boolean sample() {
+        int current = level;
+        if (current == FULL || (current == SAMPLED && ThreadLocalRandom.current().nextInt(sampleRate) == 0)) {
+            return true;
+        }
+        untraced.increment();
+        return false;
+    }
+
+    /**
+     * @param agentNanos  time the agent spent on one execution
+     * @param driverNanos time the real driver call took
+     */
+    void record(long agentNanos, long driverNanos) {
+        if (enabled) {
+            this.agentNanos.add(agentNanos);
+            this.driverNanos.add(driverNanos);
+        }
+    }
+
+    int level() {
+        return level;
+    }
+
+    private void tick() {
+        long agent = agentNanos.sumThenReset();
+        long driver = driverNanos.sumThenReset();
+        // an idle interval counts as a quiet one
+        double percent = driver == 0 ? 0 : agent * 100.0 / driver;
+        lastOverheadPercent = percent;
+        intervalsSinceStepUp++;
+        int current = level;
+        if (percent > budgetPercent && current < METRICS_ONLY) {
+            if (intervalsSinceStepUp <= requiredQuietIntervals) {
+                requiredQuietIntervals = Math.min(requiredQuietIntervals * 2, recoverIntervals * MAX_BACKOFF);
+            } else {
+                requiredQuietIntervals = recoverIntervals;
+            }
+            quietIntervals = 0;
+            level = current + 1;
+            stepDowns.incrementAndGet();
+            log.warn(String.format("SQL tracing overhead %.2f%% of JDBC time is over the %.2f%% budget, stepping down"
+                    + " %s -> %s", percent, budgetPercent, LEVEL_NAMES[current], LEVEL_NAMES[current + 1]));
+        } else if (percent < budgetPercent / 2 && current > FULL) {
+            if (++quietIntervals >= requiredQuietIntervals) {
+                quietIntervals = 0;
+                intervalsSinceStepUp = 0;
+                level = current - 1;
+                stepUps.incrementAndGet();
+                log.warn(String.format("SQL tracing overhead %.2f%% of JDBC time, stepping up %s -> %s",
+                        percent, LEVEL_NAMES[current], LEVEL_NAMES[current - 1]));
+            }
+        } else {
+            quietIntervals = 0;
+        }
+    }
+
+    /**
+     * e.g. "level=SAMPLED overhead=1.25% stepDowns=1 stepUps=0 untraced=1042"
+     */
+    @Override
+    public String toString() {
+        return String.format("level=%s overhead=%.2f%% stepDowns=%d stepUps=%d untraced=%d",
+                LEVEL_NAMES[level], lastOverheadPercent, stepDowns.get(), stepUps.get(), untraced.sum());
+    }
+}
@@ -9,14 +9,12 @@ import org.apache.bcel.generic.ARETURN;
 import org.apache.bcel.generic.ASTORE;
 import org.apache.bcel.generic.ClassGen;
 import org.apache.bcel.generic.ConstantPoolGen;
-import org.apache.bcel.generic.DUP;
 import org.apache.bcel.generic.ILOAD;
-import org.apache.bcel.generic.INVOKESPECIAL;
+import org.apache.bcel.generic.INVOKESTATIC;
 import org.apache.bcel.generic.INVOKEVIRTUAL;
 import org.apache.bcel.generic.InstructionHandle;
 import org.apache.bcel.generic.InstructionList;
 import org.apache.bcel.generic.MethodGen;
-import org.apache.bcel.generic.NEW;
 import org.apache.bcel.generic.ObjectType;
 import org.apache.bcel.generic.Type;
 
@@ -64,14 +62,12 @@ public class PrepareStatementTransformer implements ClassFileTransformer {
             int psoIdx = cp.addMethodref(cg.getClassName(), "prepareStatementOrg", "(Ljava/lang/String;II)Ljava/sql/PreparedStatement;");
             il.append(new INVOKEVIRTUAL(psoIdx));
             il.append(new ASTORE(4));
-            int pspIdx  = cp.addClass("com/vip/PreparedStatementProxy");
-            InstructionHandle l1 = il.append(new NEW(pspIdx));
-            il.append(new DUP());
-            il.append(new ALOAD(1));
+            // wrapped or not is decided by AgentSwitch, at runtime
+            InstructionHandle l1 = il.append(new ALOAD(1));
             il.append(new ALOAD(4));
-            int initPspIdx = cp.addMethodref("com/vip/PreparedStatementProxy",
-                    "<init>", "(Ljava/lang/String;Ljava/sql/PreparedStatement;)V");
-            il.append(new INVOKESPECIAL(initPspIdx));
+            int wrapIdx = cp.addMethodref("com/vip/AgentSwitch", "wrap",
+                    "(Ljava/lang/String;Ljava/sql/PreparedStatement;)Ljava/sql/PreparedStatement;");
+            il.append(new INVOKESTATIC(wrapIdx));
             InstructionHandle l2 = il.append(new ARETURN());
             MethodGen newMg = new MethodGen(Const.ACC_PUBLIC, new ObjectType("java.sql.PreparedStatement"), new Type[] {Type.STRING, Type.INT, Type.INT},
                     new String[] {"sql", "resultSetType", "resultSetConcurrency"}, "prepareStatement", cg.getClassName(), il, cp);
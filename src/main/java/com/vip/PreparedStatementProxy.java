@@ -26,9 +26,8 @@ import java.sql.SQLXML;
 import java.sql.Time;
 import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.List;
 
 /**
  * Wraps a PreparedStatement and reports method calls, returns and exceptions.
@@ -38,9 +37,34 @@ import java.util.List;
 public class PreparedStatementProxy implements PreparedStatement {
 
     /**
-     * holds list of bind variables for tracing
+     * marks a parameter explicitly bound to SQL NULL, an empty slot in argTrace means "not bound"
      */
-    protected final List argTrace = new ArrayList();
+    static final Object NULL_ARG = new Object();
+
+    /**
+     * holds the raw bind variables for tracing, indexed by parameter index - 1. A statement is only ever used by
+     * one thread at a time, so this is plain unsynchronized state owned by that thread; values are formatted
+     * lazily when the SQL is dumped.
+     */
+    protected Object[] argTrace = new Object[8];
+
+    /**
+     * optional type help per argument, only kept when showTypeHelp is on
+     */
+    private String[] argTypes;
+
+    /**
+     * number of argTrace slots in use
+     */
+    protected int argCount;
+
+    /**
+     * argTrace as of the last execute or clearParameters, for other threads (the StatementTracker). The volatile write
+     * only publishes the array reference: the owning thread goes on writing into the same array, so a reader sees a
+     * racy view of its slots, values from before or after the last execute. That is good enough for the size estimate
+     * it is used for; copying the array on every execute to make it exact is not worth it.
+     */
+    private volatile Object[] publishedArgTrace;
 
     protected static final String dateFormat = "MM/dd/yyyy HH:mm:ss.SSS";
 
@@ -51,38 +75,64 @@ public class PreparedStatementProxy implements PreparedStatement {
     private static final Logger log = LoggerFactory.getLogger(PreparedStatementProxy.class);
 
     /**
-     * Store an argument (bind variable) into the argTrace list (above) for later dumping.
+     * Store an argument (bind variable) into the argTrace array (above) for later dumping.
      *
      * @param i          index of argument being set.
      * @param typeHelper optional additional info about the type that is being set in the arg
      * @param arg        argument being bound.
      */
     protected void argTraceSet(int i, String typeHelper, Object arg) {
+        i--;  // make the index 0 based
+        if (i < 0) {
+            return;
+        }
+        if (i >= argTrace.length) {
+            argTrace = Arrays.copyOf(argTrace, Math.max(i + 1, argTrace.length * 2));
+        }
+        // if an object is being inserted out of sequence, the missing values stay null...
+        if (i >= argCount) {
+            argCount = i + 1;
+        }
+        argTrace[i] = arg == null ? NULL_ARG : arg;
+        if (showTypeHelp && typeHelper != null) {
+            if (argTypes == null || i >= argTypes.length) {
+                argTypes = Arrays.copyOf(argTypes == null ? new String[0] : argTypes, argTrace.length);
+            }
+            argTypes[i] = typeHelper;
+        }
+    }
+
+    /**
+     * Format a captured bind variable, never throws.
+     */
+    static String traceArg(Object arg, String typeHelp) {
         String tracedArg;
         try {
-            tracedArg = formatParameterObject(arg);
+            tracedArg = formatParameterObject(arg == NULL_ARG ? null : arg);
         } catch (Throwable t) {
             // rdbmsSpecifics should NEVER EVER throw an exception!!
             // but just in case it does, we trap it.
             log.debug("rdbmsSpecifics threw an exception while trying to format a " +
-                    "parameter object [" + arg + "] this is very bad!!! (" +
+                    "parameter object of " + arg.getClass().getName() + " this is very bad!!! (" +
                     t.getMessage() + ")");
 
             // backup - so that at least we won't harm the application using us
-            tracedArg = arg == null ? "null" : arg.toString();
+            tracedArg = arg == NULL_ARG ? "null" : safeToString(arg);
+        }
+        if (typeHelp != null) {
+            return typeHelp + tracedArg;
         }
+        return tracedArg;
+    }
 
-        i--;  // make the index 0 based
-        synchronized (argTrace) {
-            // if an object is being inserted out of sequence, fill up missing values with null...
-            while (i >= argTrace.size()) {
-                argTrace.add(argTrace.size(), null);
-            }
-            if (!showTypeHelp || typeHelper == null) {
-                argTrace.set(i, tracedArg);
-            } else {
-                argTrace.set(i, typeHelper + tracedArg);
-            }
+    /**
+     * toString() of a bind variable of a type the agent knows nothing about, which may throw.
+     */
+    static String safeToString(Object arg) {
+        try {
+            return String.valueOf(arg);
+        } catch (Throwable t) {
+            return "<" + arg.getClass().getName() + ".toString() failed: " + t + ">";
         }
     }
 
@@ -95,7 +145,7 @@ public class PreparedStatementProxy implements PreparedStatement {
      * @param object jdbc object to be formatted.
      * @return formatted dump of the object.
      */
-    String formatParameterObject(Object object) {
+    static String formatParameterObject(Object object) {
         if (object == null) {
             return "NULL";
         } else {
@@ -120,7 +170,7 @@ public class PreparedStatementProxy implements PreparedStatement {
      *
      * @return the input String, escaped.
      */
-    String escapeString(String in) {
+    static String escapeString(String in) {
         StringBuilder out = new StringBuilder();
         for (int i = 0, j = in.length(); i < j; i++) {
             char c = in.charAt(i);
@@ -134,7 +184,42 @@ public class PreparedStatementProxy implements PreparedStatement {
 
     private String sql;
 
+    /**
+     * template of sql, resolved once when the statement is prepared
+     */
+    private final SqlTemplate template;
+
+    /**
+     * id of sql in the EventArena, EventArena.INLINE_SQL when the arena is off or its id table is full
+     */
+    private final int sqlId;
+
+    /**
+     * id of the connection for the WorkloadRecorder, 0 when capture is off
+     */
+    private final long connectionId;
+
+    // state of the execution in progress, a statement is used by one thread at a time
+    private SqlTemplate executionTemplate;
+    private boolean executionSampled;
+    private boolean executionTraced;
+    private TraceContext executionContext;
+    private long executionStartMillis;
+    private long executionStartNanos;
+    private long executionTraceNanos;
+
     protected String dumpedSql() {
+        publishedArgTrace = argTrace;
+        return renderSql(sql, argTrace, argCount, showTypeHelp ? argTypes : null);
+    }
+
+    /**
+     * Replace the '?' placeholders of sql with the formatted bind variables.
+     *
+     * @param args     raw bind variables, null for "not bound", NULL_ARG for SQL NULL
+     * @param argTypes optional type help per argument, may be null
+     */
+    static String renderSql(String sql, Object[] args, int argCount, String[] argTypes) {
         StringBuffer dumpSql = new StringBuffer();
         int lastPos = 0;
         int Qpos = sql.indexOf('?', lastPos);  // find position of first question mark
@@ -143,15 +228,11 @@ public class PreparedStatementProxy implements PreparedStatement {
 
         while (Qpos != -1) {
             // get stored argument
-            synchronized (argTrace) {
-                try {
-                    arg = (String) argTrace.get(argIdx);
-                } catch (IndexOutOfBoundsException e) {
-                    arg = "?";
-                }
-            }
-            if (arg == null) {
+            Object value = argIdx < argCount ? args[argIdx] : null;
+            if (value == null) {
                 arg = "?";
+            } else {
+                arg = traceArg(value, argTypes != null && argIdx < argTypes.length ? argTypes[argIdx] : null);
             }
 
             argIdx++;
@@ -177,6 +258,11 @@ public class PreparedStatementProxy implements PreparedStatement {
      */
     protected PreparedStatement realPreparedStatement;
 
+    /**
+     * handle in the StatementTracker, null once closed or when tracking is disabled
+     */
+    private StatementTracker.TrackedStatement tracked;
+
     /**
      * Get the real PreparedStatement that this PreparedStatementSpy wraps.
      *
@@ -196,6 +282,31 @@ public class PreparedStatementProxy implements PreparedStatement {
     public PreparedStatementProxy(String sql, PreparedStatement realPreparedStatement) {
         this.sql = sql;
         this.realPreparedStatement = realPreparedStatement;
+        this.template = TemplateRegistry.lookup(sql);
+        this.sqlId = EventArena.INSTANCE.sqlId(sql);
+        this.connectionId = WorkloadRecorder.INSTANCE.enabled ? connectionId(realPreparedStatement) : 0;
+        this.tracked = StatementTracker.INSTANCE.track(this, sql, template);
+    }
+
+    /**
+     * Rough number of bytes held by the bind variables captured in argTrace, from a racy read of another thread's
+     * array; see publishedArgTrace.
+     */
+    long retainedParameterBytes() {
+        Object[] args = publishedArgTrace;
+        if (args == null) {
+            return 0;
+        }
+        // array slots plus a rough object size, Strings by their char data
+        long bytes = 16 + 8L * args.length;
+        for (Object arg : args) {
+            if (arg instanceof String) {
+                bytes += 40 + 2L * ((String) arg).length();
+            } else if (arg != null && arg != NULL_ARG) {
+                bytes += 24;
+            }
+        }
+        return bytes;
     }
 
     public String getClassType() {
@@ -206,56 +317,48 @@ public class PreparedStatementProxy implements PreparedStatement {
 
     @Override
     public void setTime(int parameterIndex, Time x) throws SQLException {
-        String methodCall = "setTime(" + parameterIndex + ", " + x + ")";
         argTraceSet(parameterIndex, "(Time)", x);
         realPreparedStatement.setTime(parameterIndex, x);
     }
 
     @Override
     public void setTime(int parameterIndex, Time x, Calendar cal) throws SQLException {
-        String methodCall = "setTime(" + parameterIndex + ", " + x + ", " + cal + ")";
         argTraceSet(parameterIndex, "(Time)", x);
         realPreparedStatement.setTime(parameterIndex, x, cal);
     }
 
     @Override
     public void setCharacterStream(int parameterIndex, Reader reader, int length) throws SQLException {
-        String methodCall = "setCharacterStream(" + parameterIndex + ", " + reader + ", " + length + ")";
         argTraceSet(parameterIndex, "(Reader)", "<Reader of length " + length + ">");
         realPreparedStatement.setCharacterStream(parameterIndex, reader, length);
     }
 
     @Override
     public void setNull(int parameterIndex, int sqlType) throws SQLException {
-        String methodCall = "setNull(" + parameterIndex + ", " + sqlType + ")";
         argTraceSet(parameterIndex, null, null);
         realPreparedStatement.setNull(parameterIndex, sqlType);
     }
 
     @Override
     public void setNull(int paramIndex, int sqlType, String typeName) throws SQLException {
-        String methodCall = "setNull(" + paramIndex + ", " + sqlType + ", " + typeName + ")";
         argTraceSet(paramIndex, null, null);
         realPreparedStatement.setNull(paramIndex, sqlType, typeName);
     }
 
     @Override
     public void setRef(int i, Ref x) throws SQLException {
-        String methodCall = "setRef(" + i + ", " + x + ")";
         argTraceSet(i, "(Ref)", x);
         realPreparedStatement.setRef(i, x);
     }
 
     @Override
     public void setBoolean(int parameterIndex, boolean x) throws SQLException {
-        String methodCall = "setBoolean(" + parameterIndex + ", " + x + ")";
         argTraceSet(parameterIndex, "(boolean)", x ? Boolean.TRUE : Boolean.FALSE);
         realPreparedStatement.setBoolean(parameterIndex, x);
     }
 
     @Override
     public void setBlob(int i, Blob x) throws SQLException {
-        String methodCall = "setBlob(" + i + ", " + x + ")";
         argTraceSet(i, "(Blob)",
                 x == null ? null : ("<Blob of size " + x.length() + ">"));
         realPreparedStatement.setBlob(i, x);
@@ -263,7 +366,6 @@ public class PreparedStatementProxy implements PreparedStatement {
 
     @Override
     public void setClob(int i, Clob x) throws SQLException {
-        String methodCall = "setClob(" + i + ", " + x + ")";
         argTraceSet(i, "(Clob)",
                 x == null ? null : ("<Clob of size " + x.length() + ">"));
         realPreparedStatement.setClob(i, x);
@@ -271,14 +373,12 @@ public class PreparedStatementProxy implements PreparedStatement {
 
     @Override
     public void setArray(int i, Array x) throws SQLException {
-        String methodCall = "setArray(" + i + ", " + x + ")";
         argTraceSet(i, "(Array)", "<Array>");
         realPreparedStatement.setArray(i, x);
     }
 
     @Override
     public void setByte(int parameterIndex, byte x) throws SQLException {
-        String methodCall = "setByte(" + parameterIndex + ", " + x + ")";
         argTraceSet(parameterIndex, "(byte)", new Byte(x));
         realPreparedStatement.setByte(parameterIndex, x);
     }
@@ -288,77 +388,205 @@ public class PreparedStatementProxy implements PreparedStatement {
      */
     @Override
     public void setUnicodeStream(int parameterIndex, InputStream x, int length) throws SQLException {
-        String methodCall = "setUnicodeStream(" + parameterIndex + ", " + x + ", " + length + ")";
         argTraceSet(parameterIndex, "(Unicode InputStream)", "<Unicode InputStream of length " + length + ">");
         realPreparedStatement.setUnicodeStream(parameterIndex, x, length);
     }
 
     @Override
     public void setShort(int parameterIndex, short x) throws SQLException {
-        String methodCall = "setShort(" + parameterIndex + ", " + x + ")";
         argTraceSet(parameterIndex, "(short)", new Short(x));
         realPreparedStatement.setShort(parameterIndex, x);
     }
 
     @Override
     public boolean execute() throws SQLException {
-        String methodCall = "execute()";
-        String dumpedSql = dumpedSql();
-        reportSql(dumpedSql, methodCall);
-        return realPreparedStatement.execute();
+        beginExecution(null, "execute()");
+        Throwable failure = null;
+        try {
+            return realPreparedStatement.execute();
+        } catch (SQLException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            endExecution(null, "execute", -1, failure);
+        }
+    }
+
+    /**
+     * Trace the statement as far as the OverheadGovernor allows and note when the real call starts.
+     *
+     * @param statementSql SQL passed to Statement.execute*(String), null for the prepared statement itself
+     */
+    private void beginExecution(String statementSql, String methodCall) {
+        long traceStart = System.nanoTime();
+        try {
+            executionTemplate = statementSql == null ? template : TemplateRegistry.lookup(statementSql);
+            executionSampled = OverheadGovernor.INSTANCE.sample();
+            executionTraced = executionSampled && executionTemplate.traced;
+            // JSON lines are written once the execution finished
+            if (executionTraced && !JsonLinesWriter.INSTANCE.enabled) {
+                if (statementSql == null) {
+                    traceSql(methodCall);
+                } else {
+                    traceStatementSql(statementSql, methodCall);
+                }
+            }
+            executionContext = SpanExporter.INSTANCE.enabled && executionTraced ? TraceContext.current() : null;
+        } catch (Throwable t) {
+            // whatever goes wrong in the agent, the statement must still run
+            executionTraced = false;
+            executionContext = null;
+            log.debug("SQL tracing failed before " + methodCall + ": " + t);
+        }
+        executionStartMillis = System.currentTimeMillis();
+        executionStartNanos = System.nanoTime();
+        executionTraceNanos = executionStartNanos - traceStart;
     }
 
-    private void reportSql(String dumpedSql, String methodCall) {
-        log.info("\n+++++++++++++++++++++++++++"+ methodCall +"++++++++++++++++++++++++++++\n" +
+    /**
+     * Called once the real statement returned or failed.
+     *
+     * @param statementSql SQL passed to Statement.execute*(String), null for the prepared statement itself
+     * @param rows         affected rows, or -1 when unknown
+     */
+    private void endExecution(String statementSql, String operation, long rows, Throwable failure) {
+        long end = System.nanoTime();
+        long duration = end - executionStartNanos;
+        try {
+            SqlTemplate template = executionTemplate;
+            if (WorkloadRecorder.INSTANCE.enabled) {
+                recordWorkload(statementSql, operation, executionStartNanos);
+            }
+            template.record(duration, rows, failure != null);
+            RequestBudget.record(template, duration, rows);
+            if (failure != null) {
+                // counted and logged whatever the filter and the governor say, the log is rate limited per error code
+                StatementFailures.ErrorCount errors = StatementFailures.record(template, failure);
+                if (StatementFailures.shouldLog(errors)) {
+                    StatementFailures.log(template, errors,
+                            statementSql != null ? statementSql : renderSql(sql, argTrace, argCount, null),
+                            operation, duration, failure);
+                }
+            }
+            if (statementSql == null && executionSampled && template.binds != null) {
+                template.binds.record(argTrace, argCount);
+            }
+            if (executionSampled && CallSites.shouldAttribute(duration)) {
+                CallSites.CallSite site = CallSites.record(template, duration);
+                if (duration >= CallSites.slowThresholdNanos && executionTraced) {
+                    log.warn("slow SQL " + duration / 1000000 + " ms (" + site.count.sum()
+                            + " slow or sampled from here) at " + site + ": " + template.sql);
+                }
+            }
+            if (JsonLinesWriter.INSTANCE.enabled && executionTraced) {
+                if (statementSql == null) {
+                    JsonLinesWriter.INSTANCE.write(template, sql, operation, argTrace, argCount, executionStartMillis,
+                            duration, rows, failure);
+                } else {
+                    JsonLinesWriter.INSTANCE.write(template, statementSql, operation, argTrace, 0, executionStartMillis,
+                            duration, rows, failure);
+                }
+            }
+            if (SpanExporter.INSTANCE.enabled && executionTraced) {
+                SpanExporter.INSTANCE.export(executionContext, template.sql, operation, executionStartMillis, duration,
+                        rows, failure);
+            }
+            OverheadGovernor.INSTANCE.record(executionTraceNanos + System.nanoTime() - end, duration);
+        } catch (Throwable t) {
+            // runs in the finally block of the JDBC call, must neither throw nor hide the statement's own failure
+            log.debug("SQL tracing failed after " + operation + ": " + t);
+        } finally {
+            executionContext = null;
+        }
+    }
+
+    private static long connectionId(PreparedStatement statement) {
+        try {
+            return WorkloadRecorder.INSTANCE.connectionId(statement.getConnection());
+        } catch (SQLException e) {
+            return 0;
+        }
+    }
+
+    private void recordWorkload(String statementSql, String operation, long startNanos) {
+        if (statementSql != null) {
+            WorkloadRecorder.INSTANCE.record(startNanos, connectionId, statementSql, operation, argTrace, 0);
+        } else {
+            WorkloadRecorder.INSTANCE.record(startNanos, connectionId, sql, operation, argTrace, argCount);
+        }
+    }
+
+    /**
+     * Log the SQL with its bind variables, or hand it to the off-heap EventArena when that is enabled.
+     */
+    private void traceSql(String methodCall) {
+        if (EventArena.INSTANCE.enabled) {
+            publishedArgTrace = argTrace;
+            EventArena.INSTANCE.publish(sqlId, sql, methodCall, argTrace, argCount);
+        } else {
+            reportSql(dumpedSql(), methodCall);
+        }
+    }
+
+    /**
+     * Log SQL passed to one of the Statement.execute*(String) methods.
+     */
+    private void traceStatementSql(String statementSql, String methodCall) {
+        if (EventArena.INSTANCE.enabled) {
+            EventArena.INSTANCE.publish(EventArena.PLAIN_SQL, statementSql, methodCall, argTrace, 0);
+        } else {
+            reportSql(statementSql, methodCall);
+        }
+    }
+
+    static void reportSql(String dumpedSql, String methodCall) {
+        log.info(banner(dumpedSql, methodCall));
+    }
+
+    static String banner(String dumpedSql, String methodCall) {
+        return "\n+++++++++++++++++++++++++++"+ methodCall +"++++++++++++++++++++++++++++\n" +
                 dumpedSql + "\n" +
-                "++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++");
+                "++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++";
     }
 
     @Override
     public void setInt(int parameterIndex, int x) throws SQLException {
-        String methodCall = "setInt(" + parameterIndex + ", " + x + ")";
         argTraceSet(parameterIndex, "(int)", new Integer(x));
         realPreparedStatement.setInt(parameterIndex, x);
     }
 
     @Override
     public void setLong(int parameterIndex, long x) throws SQLException {
-        String methodCall = "setLong(" + parameterIndex + ", " + x + ")";
         argTraceSet(parameterIndex, "(long)", new Long(x));
         realPreparedStatement.setLong(parameterIndex, x);
     }
 
     @Override
     public void setFloat(int parameterIndex, float x) throws SQLException {
-        String methodCall = "setFloat(" + parameterIndex + ", " + x + ")";
         argTraceSet(parameterIndex, "(float)", new Float(x));
         realPreparedStatement.setFloat(parameterIndex, x);
     }
 
     @Override
     public void setDouble(int parameterIndex, double x) throws SQLException {
-        String methodCall = "setDouble(" + parameterIndex + ", " + x + ")";
         argTraceSet(parameterIndex, "(double)", new Double(x));
         realPreparedStatement.setDouble(parameterIndex, x);
     }
 
     @Override
     public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
-        String methodCall = "setBigDecimal(" + parameterIndex + ", " + x + ")";
         argTraceSet(parameterIndex, "(BigDecimal)", x);
         realPreparedStatement.setBigDecimal(parameterIndex, x);
     }
 
     @Override
     public void setURL(int parameterIndex, URL x) throws SQLException {
-        String methodCall = "setURL(" + parameterIndex + ", " + x + ")";
         argTraceSet(parameterIndex, "(URL)", x);
         realPreparedStatement.setURL(parameterIndex, x);
     }
 
     @Override
     public void setString(int parameterIndex, String x) throws SQLException {
-        String methodCall = "setString(" + parameterIndex + ", \"" + x + "\")";
         argTraceSet(parameterIndex, "(String)", x);
 
         realPreparedStatement.setString(parameterIndex, x);
@@ -367,93 +595,87 @@ public class PreparedStatementProxy implements PreparedStatement {
     @Override
     public void setBytes(int parameterIndex, byte[] x) throws SQLException {
         //todo: dump array?
-        String methodCall = "setBytes(" + parameterIndex + ", " + x + ")";
         argTraceSet(parameterIndex, "(byte[])", "<byte[]>");
         realPreparedStatement.setBytes(parameterIndex, x);
     }
 
     @Override
     public void setDate(int parameterIndex, Date x) throws SQLException {
-        String methodCall = "setDate(" + parameterIndex + ", " + x + ")";
         argTraceSet(parameterIndex, "(Date)", x);
         realPreparedStatement.setDate(parameterIndex, x);
     }
 
     @Override
     public ParameterMetaData getParameterMetaData() throws SQLException {
-        String methodCall = "getParameterMetaData()";
         return realPreparedStatement.getParameterMetaData();
     }
 
     @Override
     public void setRowId(int parameterIndex, RowId x) throws SQLException {
-        String methodCall = "setRowId(" + parameterIndex + ", " + x + ")";
         argTraceSet(parameterIndex, "(RowId)", x);
         realPreparedStatement.setRowId(parameterIndex, x);
     }
 
     @Override
     public void setNString(int parameterIndex, String value) throws SQLException {
-        String methodCall = "setNString(" + parameterIndex + ", " + value + ")";
         argTraceSet(parameterIndex, "(String)", value);
         realPreparedStatement.setNString(parameterIndex, value);
     }
 
     @Override
     public void setNCharacterStream(int parameterIndex, Reader value, long length) throws SQLException {
-        String methodCall = "setNCharacterStream(" + parameterIndex + ", " + value + ", " + length + ")";
         argTraceSet(parameterIndex, "(Reader)", "<Reader of length " + length + ">");
         realPreparedStatement.setNCharacterStream(parameterIndex, value, length);
     }
 
     @Override
     public void setNClob(int parameterIndex, NClob value) throws SQLException {
-        String methodCall = "setNClob(" + parameterIndex + ", " + value + ")";
         argTraceSet(parameterIndex, "(NClob)", "<NClob>");
         realPreparedStatement.setNClob(parameterIndex, value);
     }
 
     @Override
     public void setClob(int parameterIndex, Reader reader, long length) throws SQLException {
-        String methodCall = "setClob(" + parameterIndex + ", " + reader + ", " + length + ")";
         argTraceSet(parameterIndex, "(Reader)", "<Reader of length " + length + ">");
         realPreparedStatement.setClob(parameterIndex, reader, length);
     }
 
     @Override
     public void setBlob(int parameterIndex, InputStream inputStream, long length) throws SQLException {
-        String methodCall = "setBlob(" + parameterIndex + ", " + inputStream + ", " + length + ")";
         argTraceSet(parameterIndex, "(InputStream)", "<InputStream of length " + length + ">");
         realPreparedStatement.setBlob(parameterIndex, inputStream, length);
     }
 
     @Override
     public void setNClob(int parameterIndex, Reader reader, long length) throws SQLException {
-        String methodCall = "setNClob(" + parameterIndex + ", " + reader + ", " + length + ")";
         argTraceSet(parameterIndex, "(Reader)", "<Reader of length " + length + ">");
         realPreparedStatement.setNClob(parameterIndex, reader, length);
     }
 
     @Override
     public void setSQLXML(int parameterIndex, SQLXML xmlObject) throws SQLException {
-        String methodCall = "setSQLXML(" + parameterIndex + ", " + xmlObject + ")";
         argTraceSet(parameterIndex, "(SQLXML)", xmlObject);
         realPreparedStatement.setSQLXML(parameterIndex, xmlObject);
     }
 
     @Override
     public void setDate(int parameterIndex, Date x, Calendar cal) throws SQLException {
-        String methodCall = "setDate(" + parameterIndex + ", " + x + ", " + cal + ")";
         argTraceSet(parameterIndex, "(Date)", x);
         realPreparedStatement.setDate(parameterIndex, x, cal);
     }
 
     @Override
     public ResultSet executeQuery() throws SQLException {
-        String methodCall = "executeQuery()";
-        String dumpedSql = dumpedSql();
-        reportSql(dumpedSql, methodCall);
-        return realPreparedStatement.executeQuery();
+        beginExecution(null, "executeQuery()");
+        Throwable failure = null;
+        try {
+            return realPreparedStatement.executeQuery();
+        } catch (SQLException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            endExecution(null, "executeQuery", -1, failure);
+        }
     }
 
     private String getTypeHelp(Object x) {
@@ -466,7 +688,6 @@ public class PreparedStatementProxy implements PreparedStatement {
 
     @Override
     public void setObject(int parameterIndex, Object x, int targetSqlType, int scale) throws SQLException {
-        String methodCall = "setObject(" + parameterIndex + ", " + x + ", " + targetSqlType + ", " + scale + ")";
         argTraceSet(parameterIndex, getTypeHelp(x), x);
 
         realPreparedStatement.setObject(parameterIndex, x, targetSqlType, scale);
@@ -495,21 +716,18 @@ public class PreparedStatementProxy implements PreparedStatement {
      */
     @Override
     public void setAsciiStream(int parameterIndex, InputStream x, long length) throws SQLException {
-        String methodCall = "setAsciiStream(" + parameterIndex + ", " + x + ", " + length + ")";
         argTraceSet(parameterIndex, "(Ascii InputStream)", "<Ascii InputStream of length " + length + ">");
         realPreparedStatement.setAsciiStream(parameterIndex, x, length);
     }
 
     @Override
     public void setBinaryStream(int parameterIndex, InputStream x, long length) throws SQLException {
-        String methodCall = "setBinaryStream(" + parameterIndex + ", " + x + ", " + length + ")";
         argTraceSet(parameterIndex, "(Binary InputStream)", "<Binary InputStream of length " + length + ">");
         realPreparedStatement.setBinaryStream(parameterIndex, x, length);
     }
 
     @Override
     public void setCharacterStream(int parameterIndex, Reader reader, long length) throws SQLException {
-        String methodCall = "setCharacterStream(" + parameterIndex + ", " + reader + ", " + length + ")";
         argTraceSet(parameterIndex, "(Reader)", "<Reader of length " + length + ">");
         realPreparedStatement.setCharacterStream(parameterIndex, reader, length);
 
@@ -517,14 +735,12 @@ public class PreparedStatementProxy implements PreparedStatement {
 
     @Override
     public void setAsciiStream(int parameterIndex, InputStream x) throws SQLException {
-        String methodCall = "setAsciiStream(" + parameterIndex + ", " + x + ")";
         argTraceSet(parameterIndex, "(Ascii InputStream)", "<Ascii InputStream>");
         realPreparedStatement.setAsciiStream(parameterIndex, x);
     }
 
     @Override
     public void setBinaryStream(int parameterIndex, InputStream x) throws SQLException {
-        String methodCall = "setBinaryStream(" + parameterIndex + ", " + x + ")";
         argTraceSet(parameterIndex, "(Binary InputStream)", "<Binary InputStream>");
         realPreparedStatement.setBinaryStream(parameterIndex, x);
 
@@ -532,121 +748,114 @@ public class PreparedStatementProxy implements PreparedStatement {
 
     @Override
     public void setCharacterStream(int parameterIndex, Reader reader) throws SQLException {
-        String methodCall = "setCharacterStream(" + parameterIndex + ", " + reader + ")";
         argTraceSet(parameterIndex, "(Reader)", "<Reader>");
         realPreparedStatement.setCharacterStream(parameterIndex, reader);
     }
 
     @Override
     public void setNCharacterStream(int parameterIndex, Reader reader) throws SQLException {
-        String methodCall = "setNCharacterStream(" + parameterIndex + ", " + reader + ")";
         argTraceSet(parameterIndex, "(Reader)", "<Reader>");
         realPreparedStatement.setNCharacterStream(parameterIndex, reader);
     }
 
     @Override
     public void setClob(int parameterIndex, Reader reader) throws SQLException {
-        String methodCall = "setClob(" + parameterIndex + ", " + reader + ")";
         argTraceSet(parameterIndex, "(Reader)", "<Reader>");
         realPreparedStatement.setClob(parameterIndex, reader);
     }
 
     @Override
     public void setBlob(int parameterIndex, InputStream inputStream) throws SQLException {
-        String methodCall = "setBlob(" + parameterIndex + ", " + inputStream + ")";
         argTraceSet(parameterIndex, "(InputStream)", "<InputStream>");
         realPreparedStatement.setBlob(parameterIndex, inputStream);
     }
 
     @Override
     public void setNClob(int parameterIndex, Reader reader) throws SQLException {
-        String methodCall = "setNClob(" + parameterIndex + ", " + reader + ")";
         argTraceSet(parameterIndex, "(Reader)", "<Reader>");
         realPreparedStatement.setNClob(parameterIndex, reader);
     }
 
     @Override
     public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
-        String methodCall = "setObject(" + parameterIndex + ", " + x + ", " + targetSqlType + ")";
         argTraceSet(parameterIndex, getTypeHelp(x), x);
         realPreparedStatement.setObject(parameterIndex, x, targetSqlType);
     }
 
     @Override
     public void setObject(int parameterIndex, Object x) throws SQLException {
-        String methodCall = "setObject(" + parameterIndex + ", " + x + ")";
         argTraceSet(parameterIndex, getTypeHelp(x), x);
         realPreparedStatement.setObject(parameterIndex, x);
     }
 
     @Override
     public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
-        String methodCall = "setTimestamp(" + parameterIndex + ", " + x + ")";
         argTraceSet(parameterIndex, "(Date)", x);
         realPreparedStatement.setTimestamp(parameterIndex, x);
     }
 
     @Override
     public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal) throws SQLException {
-        String methodCall = "setTimestamp(" + parameterIndex + ", " + x + ", " + cal + ")";
         argTraceSet(parameterIndex, "(Timestamp)", x);
         realPreparedStatement.setTimestamp(parameterIndex, x, cal);
     }
 
     @Override
     public int executeUpdate() throws SQLException {
-        String methodCall = "executeUpdate()";
-        String dumpedSql = dumpedSql();
-        reportSql(dumpedSql, methodCall);
-        return realPreparedStatement.executeUpdate();
+        beginExecution(null, "executeUpdate()");
+        long rows = -1;
+        Throwable failure = null;
+        try {
+            int updated = realPreparedStatement.executeUpdate();
+            rows = updated;
+            return updated;
+        } catch (SQLException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            endExecution(null, "executeUpdate", rows, failure);
+        }
     }
 
     @Override
     public void setAsciiStream(int parameterIndex, InputStream x, int length) throws SQLException {
-        String methodCall = "setAsciiStream(" + parameterIndex + ", " + x + ", " + length + ")";
         argTraceSet(parameterIndex, "(Ascii InputStream)", "<Ascii InputStream of length " + length + ">");
         realPreparedStatement.setAsciiStream(parameterIndex, x, length);
     }
 
     @Override
     public void setBinaryStream(int parameterIndex, InputStream x, int length) throws SQLException {
-        String methodCall = "setBinaryStream(" + parameterIndex + ", " + x + ", " + length + ")";
         argTraceSet(parameterIndex, "(Binary InputStream)", "<Binary InputStream of length " + length + ">");
         realPreparedStatement.setBinaryStream(parameterIndex, x, length);
     }
 
     @Override
     public void clearParameters() throws SQLException {
-        String methodCall = "clearParameters()";
 
-        synchronized (argTrace) {
-            argTrace.clear();
-        }
+        Arrays.fill(argTrace, 0, argCount, null);
+        argCount = 0;
+        publishedArgTrace = argTrace;
 
         realPreparedStatement.clearParameters();
     }
 
     @Override
     public ResultSetMetaData getMetaData() throws SQLException {
-        String methodCall = "getMetaData()";
         return realPreparedStatement.getMetaData();
     }
 
     @Override
     public void addBatch() throws SQLException {
-        String methodCall = "addBatch()";
         realPreparedStatement.addBatch();
     }
 
     @Override
     public <T> T unwrap(Class<T> iface) throws SQLException {
-        String methodCall = "unwrap(" + (iface == null ? "null" : iface.getName()) + ")";
         return realPreparedStatement.unwrap(iface);
     }
 
     @Override
     public boolean isWrapperFor(Class<?> iface) throws SQLException {
-        String methodCall = "isWrapperFor(" + (iface == null ? "null" : iface.getName()) + ")";
         return realPreparedStatement.isWrapperFor(iface);
     }
 
@@ -662,24 +871,56 @@ public class PreparedStatementProxy implements PreparedStatement {
 
     @Override
     public long executeLargeUpdate() throws SQLException {
-        String methodCall = "executeLargeUpdate()";
-        String dumpedSql = dumpedSql();
-        reportSql(dumpedSql, methodCall);
-        return realPreparedStatement.executeLargeUpdate();
+        beginExecution(null, "executeLargeUpdate()");
+        long rows = -1;
+        Throwable failure = null;
+        try {
+            long updated = realPreparedStatement.executeLargeUpdate();
+            rows = updated;
+            return updated;
+        } catch (SQLException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            endExecution(null, "executeLargeUpdate", rows, failure);
+        }
     }
 
     @Override
     public ResultSet executeQuery(String sql) throws SQLException {
-        return realPreparedStatement.executeQuery(sql);
+        beginExecution(sql, "executeQuery(String)");
+        Throwable failure = null;
+        try {
+            return realPreparedStatement.executeQuery(sql);
+        } catch (SQLException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            endExecution(sql, "executeQuery", -1, failure);
+        }
     }
 
     @Override
     public int executeUpdate(String sql) throws SQLException {
-        return realPreparedStatement.executeUpdate(sql);
+        beginExecution(sql, "executeUpdate(String)");
+        long rows = -1;
+        Throwable failure = null;
+        try {
+            int updated = realPreparedStatement.executeUpdate(sql);
+            rows = updated;
+            return updated;
+        } catch (SQLException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            endExecution(sql, "executeUpdate", rows, failure);
+        }
     }
 
     @Override
     public void close() throws SQLException {
+        StatementTracker.INSTANCE.untrack(tracked);
+        tracked = null;
         realPreparedStatement.close();
     }
 
@@ -740,7 +981,16 @@ public class PreparedStatementProxy implements PreparedStatement {
 
     @Override
     public boolean execute(String sql) throws SQLException {
-        return realPreparedStatement.execute(sql);
+        beginExecution(sql, "execute(String)");
+        Throwable failure = null;
+        try {
+            return realPreparedStatement.execute(sql);
+        } catch (SQLException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            endExecution(sql, "execute", -1, failure);
+        }
     }
 
     @Override
@@ -820,32 +1070,95 @@ public class PreparedStatementProxy implements PreparedStatement {
 
     @Override
     public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
-        return realPreparedStatement.executeUpdate(sql, autoGeneratedKeys);
+        beginExecution(sql, "executeUpdate(String, int)");
+        long rows = -1;
+        Throwable failure = null;
+        try {
+            int updated = realPreparedStatement.executeUpdate(sql, autoGeneratedKeys);
+            rows = updated;
+            return updated;
+        } catch (SQLException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            endExecution(sql, "executeUpdate", rows, failure);
+        }
     }
 
     @Override
     public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
-        return realPreparedStatement.executeUpdate(sql, columnIndexes);
+        beginExecution(sql, "executeUpdate(String, int[])");
+        long rows = -1;
+        Throwable failure = null;
+        try {
+            int updated = realPreparedStatement.executeUpdate(sql, columnIndexes);
+            rows = updated;
+            return updated;
+        } catch (SQLException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            endExecution(sql, "executeUpdate", rows, failure);
+        }
     }
 
     @Override
     public int executeUpdate(String sql, String[] columnNames) throws SQLException {
-        return realPreparedStatement.executeUpdate(sql, columnNames);
+        beginExecution(sql, "executeUpdate(String, String[])");
+        long rows = -1;
+        Throwable failure = null;
+        try {
+            int updated = realPreparedStatement.executeUpdate(sql, columnNames);
+            rows = updated;
+            return updated;
+        } catch (SQLException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            endExecution(sql, "executeUpdate", rows, failure);
+        }
     }
 
     @Override
     public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
-        return realPreparedStatement.execute(sql, autoGeneratedKeys);
+        beginExecution(sql, "execute(String, int)");
+        Throwable failure = null;
+        try {
+            return realPreparedStatement.execute(sql, autoGeneratedKeys);
+        } catch (SQLException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            endExecution(sql, "execute", -1, failure);
+        }
     }
 
     @Override
     public boolean execute(String sql, int[] columnIndexes) throws SQLException {
-        return realPreparedStatement.execute(sql, columnIndexes);
+        beginExecution(sql, "execute(String, int[])");
+        Throwable failure = null;
+        try {
+            return realPreparedStatement.execute(sql, columnIndexes);
+        } catch (SQLException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            endExecution(sql, "execute", -1, failure);
+        }
     }
 
     @Override
     public boolean execute(String sql, String[] columnNames) throws SQLException {
-        return realPreparedStatement.execute(sql, columnNames);
+        beginExecution(sql, "execute(String, String[])");
+        Throwable failure = null;
+        try {
+            return realPreparedStatement.execute(sql, columnNames);
+        } catch (SQLException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            endExecution(sql, "execute", -1, failure);
+        }
     }
 
     @Override
@@ -900,22 +1213,70 @@ public class PreparedStatementProxy implements PreparedStatement {
 
     @Override
     public long executeLargeUpdate(String sql) throws SQLException {
-        return realPreparedStatement.executeLargeUpdate(sql);
+        beginExecution(sql, "executeLargeUpdate(String)");
+        long rows = -1;
+        Throwable failure = null;
+        try {
+            long updated = realPreparedStatement.executeLargeUpdate(sql);
+            rows = updated;
+            return updated;
+        } catch (SQLException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            endExecution(sql, "executeLargeUpdate", rows, failure);
+        }
     }
 
     @Override
     public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
-        return realPreparedStatement.executeLargeUpdate(sql, autoGeneratedKeys);
+        beginExecution(sql, "executeLargeUpdate(String, int)");
+        long rows = -1;
+        Throwable failure = null;
+        try {
+            long updated = realPreparedStatement.executeLargeUpdate(sql, autoGeneratedKeys);
+            rows = updated;
+            return updated;
+        } catch (SQLException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            endExecution(sql, "executeLargeUpdate", rows, failure);
+        }
     }
 
     @Override
     public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
-        return realPreparedStatement.executeLargeUpdate(sql, columnIndexes);
+        beginExecution(sql, "executeLargeUpdate(String, int[])");
+        long rows = -1;
+        Throwable failure = null;
+        try {
+            long updated = realPreparedStatement.executeLargeUpdate(sql, columnIndexes);
+            rows = updated;
+            return updated;
+        } catch (SQLException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            endExecution(sql, "executeLargeUpdate", rows, failure);
+        }
     }
 
     @Override
     public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
-        return realPreparedStatement.executeLargeUpdate(sql, columnNames);
+        beginExecution(sql, "executeLargeUpdate(String, String[])");
+        long rows = -1;
+        Throwable failure = null;
+        try {
+            long updated = realPreparedStatement.executeLargeUpdate(sql, columnNames);
+            rows = updated;
+            return updated;
+        } catch (SQLException | RuntimeException e) {
+            failure = e;
+            throw e;
+        } finally {
+            endExecution(sql, "executeLargeUpdate", rows, failure);
+        }
     }
 }
 
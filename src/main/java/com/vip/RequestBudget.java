@@ -0,0 +1,200 @@
+package com.vip;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Database work per unit of application work. The application, e.g. from a servlet filter, marks a request:
+ * <pre>
+ * RequestBudget.begin(request.getMethod() + " " + request.getRequestURI());
+ * try {
+ *     chain.doFilter(request, response);
+ * } finally {
+ *     RequestBudget.end();
+ * }
+ * </pre>
+ * and every statement executed by that thread in between is counted against the request. When the request ends with
+ * more than {@code jdbclog.budget.maxStatements} statements, more than {@code jdbclog.budget.maxDbMs} milliseconds in
+ * the driver or, if set, more than {@code jdbclog.budget.maxRows} affected rows, one warning with the request's
+ * busiest templates is logged.
+ *
+ * Rows are the update counts of executeUpdate and executeLargeUpdate. Rows returned by queries are not counted, that
+ * would take wrapping every ResultSet, and code that casts it to the driver's class would break; a request that
+ * reads too much shows up in its statement count and driver time instead.
+ *
+ * Counting happens in a per thread object that is reused from request to request: a statement costs a few increments
+ * and two array stores, the per template breakdown is only built for requests over budget. Nested begin/end pairs
+ * count towards the outermost request.
+ */
+public final class RequestBudget {
+
+    private static final Logger log = LoggerFactory.getLogger(RequestBudget.class);
+
+    private static final int maxStatements = AgentConfig.getInt("budget.maxStatements", 100);
+    private static final long maxDbNanos = AgentConfig.getLong("budget.maxDbMs", 500L) * 1000000L;
+    /**
+     * affected rows only, see the class comment
+     */
+    private static final long maxRows = AgentConfig.getLong("budget.maxRows", 0L);
+    /**
+     * statements remembered per request for the breakdown, the counters go on beyond it
+     */
+    private static final int trackedStatements = Math.max(16, AgentConfig.getInt("budget.trackedStatements", 1024));
+    private static final int topTemplates = AgentConfig.getInt("budget.topTemplates", 5);
+
+    /**
+     * set by the first begin(), until then executions don't even look up the thread local
+     */
+    private static volatile boolean used;
+
+    private static final ThreadLocal<Request> current = new ThreadLocal<Request>() {
+        @Override
+        protected Request initialValue() {
+            return new Request();
+        }
+    };
+
+    static final AtomicLong requests = new AtomicLong();
+    static final AtomicLong overBudget = new AtomicLong();
+
+    private RequestBudget() {
+    }
+
+    /**
+     * Start counting the statements of the calling thread.
+     *
+     * @param name shown in the over budget warning, e.g. the URI
+     */
+    public static void begin(String name) {
+        used = true;
+        Request request = current.get();
+        if (request.depth++ == 0) {
+            request.start(name);
+        }
+    }
+
+    /**
+     * Stop counting and log a summary if the request went over budget.
+     */
+    public static void end() {
+        if (!used) {
+            return;
+        }
+        Request request = current.get();
+        if (request.depth == 0 || --request.depth > 0) {
+            return;
+        }
+        requests.incrementAndGet();
+        if (request.statements > maxStatements || request.dbNanos > maxDbNanos
+                || (maxRows > 0 && request.rows > maxRows)) {
+            overBudget.incrementAndGet();
+            log.warn(request.summary());
+        }
+        request.clear();
+    }
+
+    /**
+     * Count one execution against the calling thread's request, if there is one.
+     *
+     * @param rows affected rows, or -1 for queries and execute(), which count as none
+     */
+    static void record(SqlTemplate template, long durationNanos, long rows) {
+        if (!used) {
+            return;
+        }
+        Request request = current.get();
+        if (request.depth > 0) {
+            request.record(template, durationNanos, rows);
+        }
+    }
+
+    private static final class Request {
+        int depth;
+        String name;
+        long startNanos;
+        int statements;
+        long dbNanos;
+        long rows;
+        SqlTemplate[] templates = new SqlTemplate[Math.min(64, trackedStatements)];
+        long[] durations = new long[templates.length];
+
+        void start(String name) {
+            this.name = name;
+            this.startNanos = System.nanoTime();
+        }
+
+        void record(SqlTemplate template, long durationNanos, long rows) {
+            int n = statements++;
+            dbNanos += durationNanos;
+            if (rows > 0) {
+                this.rows += rows;
+            }
+            if (n == templates.length && n < trackedStatements) {
+                templates = Arrays.copyOf(templates, Math.min(n * 2, trackedStatements));
+                durations = Arrays.copyOf(durations, templates.length);
+            }
+            if (n < templates.length) {
+                templates[n] = template;
+                durations[n] = durationNanos;
+            }
+        }
+
+        void clear() {
+            for (int i = 0; i < Math.min(statements, templates.length); i++) {
+                templates[i] = null;
+            }
+            name = null;
+            statements = 0;
+            dbNanos = 0;
+            rows = 0;
+        }
+
+        String summary() {
+            Map<SqlTemplate, long[]> byTemplate = new IdentityHashMap<SqlTemplate, long[]>();
+            for (int i = 0; i < Math.min(statements, templates.length); i++) {
+                long[] stats = byTemplate.get(templates[i]);
+                if (stats == null) {
+                    stats = new long[2];
+                    byTemplate.put(templates[i], stats);
+                }
+                stats[0]++;
+                stats[1] += durations[i];
+            }
+            List<Map.Entry<SqlTemplate, long[]>> entries =
+                    new ArrayList<Map.Entry<SqlTemplate, long[]>>(byTemplate.entrySet());
+            Collections.sort(entries, new Comparator<Map.Entry<SqlTemplate, long[]>>() {
+                @Override
+                public int compare(Map.Entry<SqlTemplate, long[]> a, Map.Entry<SqlTemplate, long[]> b) {
+                    return Long.compare(b.getValue()[1], a.getValue()[1]);
+                }
+            });
+            StringBuilder summary = new StringBuilder("request ").append(name).append(" over DB budget: ")
+                    .append(statements).append(" statements, ").append(dbNanos / 1000000).append(" ms in the driver, ")
+                    .append(rows).append(" affected rows, ").append((System.nanoTime() - startNanos) / 1000000)
+                    .append(" ms elapsed (budget ").append(maxStatements).append(" statements, ")
+                    .append(maxDbNanos / 1000000).append(" ms");
+            if (maxRows > 0) {
+                summary.append(", ").append(maxRows).append(" affected rows");
+            }
+            summary.append(")");
+            if (statements > templates.length) {
+                summary.append(", breakdown of the first ").append(templates.length).append(" statements");
+            }
+            for (int i = 0; i < entries.size() && i < topTemplates; i++) {
+                long[] stats = entries.get(i).getValue();
+                summary.append("\n  ").append(stats[0]).append(" x ").append(stats[1] / 1000000).append(" ms ")
+                        .append(entries.get(i).getKey().sql);
+            }
+            return summary.toString();
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.vip;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes one span per traced statement execution to a local file, in the OTLP/JSON file format: every line is an
+ * ExportTraceServiceRequest holding one batch of spans, so the file can be fed to an OpenTelemetry collector
+ * (filelog / otlpjsonfile receiver) without any OpenTelemetry classes on the application classpath.
+ *
+ * The request thread only offers a small record to a bounded queue; encoding, batching, writing and rotation
+ * happen on a daemon thread. When the queue is full the span is dropped and counted.
+ *
+ * Enabled with {@code jdbclog.span.file=/path/to/spans.jsonl}.
+ */
+final class SpanExporter {
+
+    private static final Logger log = LoggerFactory.getLogger(SpanExporter.class);
+
+    static final SpanExporter INSTANCE = new SpanExporter(
+            AgentConfig.getString("span.file", null),
+            AgentConfig.getInt("span.queueSize", 8192),
+            AgentConfig.getInt("span.batchSize", 512),
+            AgentConfig.getLong("span.flushIntervalMs", 1000L),
+            AgentConfig.getLong("span.maxFileBytes", 100L * 1024 * 1024),
+            AgentConfig.getInt("span.maxFiles", 5));
+
+    final boolean enabled;
+    private final File file;
+    private final BlockingQueue<Span> queue;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Random random = new Random();
+
+    private Writer out;
+    private long written;
+
+    private SpanExporter(String path, int queueSize, int batchSize, long flushIntervalMs,
+                         long maxFileBytes, int maxFiles) {
+        this.enabled = path != null;
+        this.file = path == null ? null : new File(path);
+        this.queue = new ArrayBlockingQueue<Span>(Math.max(1, queueSize));
+        this.batchSize = batchSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        if (enabled) {
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            }, "jdbc-log-span-exporter");
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    /**
+     * Queue a span for export, never blocks.
+     *
+     * @param context      trace context captured at execute time, may be null
+     * @param sql          SQL template, bind values are not exported
+     * @param operation    the JDBC method, e.g. executeQuery
+     * @param startMillis  wall clock start time
+     * @param durationNs   execution time
+     * @param rows         affected rows, or -1 when unknown
+     * @param error        failure, or null
+     */
+    void export(TraceContext context, String sql, String operation, long startMillis, long durationNs,
+                long rows, Throwable error) {
+        Span span = new Span(context, sql, operation, startMillis, durationNs, rows, error);
+        if (!queue.offer(span)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void drain() {
+        List<Span> batch = new ArrayList<Span>(batchSize);
+        StringBuilder line = new StringBuilder(4096);
+        while (true) {
+            try {
+                Span first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                line.setLength(0);
+                encodeBatch(batch, line);
+                write(line);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Throwable t) {
+                log.warn("span export to " + file + " failed: " + t);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void encodeBatch(List<Span> batch, StringBuilder sb) {
+        sb.append("{\"resourceSpans\":[{\"resource\":{\"attributes\":[");
+        attribute(sb, "service.name", AgentConfig.getString("span.serviceName", "jdbc-log-agent"));
+        sb.append("]},\"scopeSpans\":[{\"scope\":{\"name\":\"jdbc-log-agent\"},\"spans\":[");
+        long dropCount = dropped.getAndSet(0);
+        for (int i = 0; i < batch.size(); i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            encodeSpan(batch.get(i), sb);
+        }
+        sb.append("]}]}]}\n");
+        if (dropCount > 0) {
+            log.warn("span exporter queue full, dropped " + dropCount + " spans");
+        }
+    }
+
+    private boolean warnedInvalidId;
+
+    private void encodeSpan(Span span, StringBuilder sb) {
+        long startNanos = span.startMillis * 1000000L;
+        // ids come from application code, collectors reject anything but 32 and 16 hex digits
+        String traceId = span.context != null ? hexId(span.context.traceId, 32) : null;
+        if (span.context != null && traceId == null && !warnedInvalidId) {
+            warnedInvalidId = true;
+            log.warn("trace id is not 32 hex digits, spans get a fresh trace id instead: " + span.context.traceId);
+        }
+        sb.append("{\"traceId\":");
+        jsonString(sb, traceId != null ? traceId : randomHex(16));
+        sb.append(",\"spanId\":\"").append(randomHex(8)).append('"');
+        String parentSpanId = traceId != null ? hexId(span.context.parentSpanId, 16) : null;
+        if (parentSpanId != null) {
+            sb.append(",\"parentSpanId\":");
+            jsonString(sb, parentSpanId);
+        }
+        sb.append(",\"name\":");
+        jsonString(sb, span.operation);
+        sb.append(",\"kind\":3")
+                .append(",\"startTimeUnixNano\":\"").append(startNanos).append('"')
+                .append(",\"endTimeUnixNano\":\"").append(startNanos + span.durationNs).append('"')
+                .append(",\"attributes\":[");
+        attribute(sb, "db.system", "mysql");
+        sb.append(',');
+        attribute(sb, "db.statement", span.sql);
+        if (span.rows >= 0) {
+            sb.append(",{\"key\":\"db.rows\",\"value\":{\"intValue\":\"").append(span.rows).append("\"}}");
+        }
+        sb.append(']');
+        if (span.error != null) {
+            sb.append(",\"status\":{\"code\":2,\"message\":");
+            jsonString(sb, String.valueOf(span.error));
+            sb.append('}');
+        }
+        sb.append('}');
+    }
+
+    /**
+     * @return id in lower case when it is digits hex digits and not all zero (invalid in W3C and OTLP), else null
+     */
+    static String hexId(String id, int digits) {
+        if (id == null || id.length() != digits) {
+            return null;
+        }
+        boolean zero = true;
+        for (int i = 0; i < digits; i++) {
+            char c = id.charAt(i);
+            if (Character.digit(c, 16) < 0) {
+                return null;
+            }
+            zero &= c == '0';
+        }
+        return zero ? null : id.toLowerCase();
+    }
+
+    private static void attribute(StringBuilder sb, String key, String value) {
+        sb.append("{\"key\":\"").append(key).append("\",\"value\":{\"stringValue\":");
+        jsonString(sb, value);
+        sb.append("}}");
+    }
+
+    static void jsonString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    private String randomHex(int bytes) {
+        StringBuilder sb = new StringBuilder(bytes * 2);
+        for (int i = 0; i < bytes; i++) {
+            int b = random.nextInt(256);
+            sb.append(Character.forDigit(b >> 4, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private void write(CharSequence line) throws IOException {
+        if (out == null) {
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.exists()) {
+                parent.mkdirs();
+            }
+            written = file.length();
+            out = new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8);
+        }
+        out.append(line);
+        out.flush();
+        // close enough for rotation purposes, span text is almost always ASCII
+        written += line.length();
+        if (written >= maxFileBytes) {
+            rotate();
+        }
+    }
+
+    /**
+     * spans.jsonl -> spans.jsonl.1 -> ... -> spans.jsonl.{maxFiles - 1}, the oldest file is deleted.
+     */
+    private void rotate() throws IOException {
+        out.close();
+        out = null;
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            File from = i == 1 ? file : new File(file.getPath() + "." + (i - 1));
+            File to = new File(file.getPath() + "." + i);
+            if (from.exists()) {
+                to.delete();
+                from.renameTo(to);
+            }
+        }
+        if (maxFiles <= 1) {
+            file.delete();
+        }
+    }
+
+    private static final class Span {
+        final TraceContext context;
+        final String sql;
+        final String operation;
+        final long startMillis;
+        final long durationNs;
+        final long rows;
+        final Throwable error;
+
+        Span(TraceContext context, String sql, String operation, long startMillis, long durationNs,
+             long rows, Throwable error) {
+            this.context = context;
+            this.sql = sql;
+            this.operation = operation;
+            this.startMillis = startMillis;
+            this.durationNs = durationNs;
+            this.rows = rows;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package com.vip;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Include / exclude rules deciding which SQL templates are traced.
+ *
+ * Rules are configured with {@code jdbclog.filter.include} and {@code jdbclog.filter.exclude}. Rules are separated
+ * by ';', a rule is a whitespace separated list of conditions that must all hold:
+ * <ul>
+ * <li>{@code type:insert|update|delete} - the statement's first keyword</li>
+ * <li>{@code table:order_*|user} - any referenced table, '*' matches any run of characters</li>
+ * <li>{@code schema:shop} - the qualifier of any referenced table (schema.table)</li>
+ * <li>{@code regex:^select \?$} - a regex found in the normalized SQL, use \s instead of blanks</li>
+ * </ul>
+ * A template is traced when no include rule is configured or one of them matches, and no exclude rule matches,
+ * e.g. {@code include=type:insert|update|delete table:order_*} and {@code exclude=regex:^select\s\?$}.
+ *
+ * Rules are compiled once at startup and evaluated once per template, when it is first seen; the outcome is
+ * kept in {@link SqlTemplate#traced}. Past {@code jdbclog.stats.maxTemplates} they are evaluated per statement.
+ *
+ * Passed as agent arguments, quote the rules since they contain ';', e.g.
+ * {@code -javaagent:jdbc-log-agent.jar=filter.exclude="regex:^select\s\?$;type:delete",stats.maxTemplates=500}.
+ */
+final class SqlFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(SqlFilter.class);
+
+    static final SqlFilter INSTANCE = new SqlFilter(
+            compile(AgentConfig.getString("filter.include", null)),
+            compile(AgentConfig.getString("filter.exclude", null)));
+
+    private final Rule[] includes;
+    private final Rule[] excludes;
+
+    private SqlFilter(Rule[] includes, Rule[] excludes) {
+        this.includes = includes;
+        this.excludes = excludes;
+    }
+
+    boolean hasRules() {
+        return includes.length > 0 || excludes.length > 0;
+    }
+
+    /**
+     * @param normalizedSql SQL as produced by {@link SqlFingerprinter#normalize(String)}
+     */
+    boolean accept(String normalizedSql) {
+        if (!hasRules()) {
+            return true;
+        }
+        StatementInfo info = new StatementInfo(normalizedSql);
+        boolean included = includes.length == 0;
+        for (Rule rule : includes) {
+            if (rule.matches(info)) {
+                included = true;
+                break;
+            }
+        }
+        if (!included) {
+            return false;
+        }
+        for (Rule rule : excludes) {
+            if (rule.matches(info)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Rule[] compile(String rules) {
+        List<Rule> compiled = new ArrayList<Rule>();
+        if (rules != null) {
+            for (String rule : rules.split(";")) {
+                if (rule.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    compiled.add(new Rule(rule.trim()));
+                } catch (IllegalArgumentException e) {
+                    // a bad rule must not break the application, it is ignored
+                    log.warn("ignoring SQL filter rule [" + rule + "]: " + e.getMessage());
+                }
+            }
+        }
+        return compiled.toArray(new Rule[0]);
+    }
+
+    private static final class Rule {
+        private Set<String> types;
+        private NamePattern tables;
+        private NamePattern schemas;
+        private Pattern regex;
+
+        Rule(String rule) {
+            for (String condition : rule.split("\\s+")) {
+                int colon = condition.indexOf(':');
+                if (colon <= 0) {
+                    throw new IllegalArgumentException("expected key:value, got " + condition);
+                }
+                String key = condition.substring(0, colon).toLowerCase();
+                String value = condition.substring(colon + 1);
+                if ("type".equals(key)) {
+                    types = new HashSet<String>();
+                    for (String type : value.toLowerCase().split("\\|")) {
+                        types.add(type);
+                    }
+                } else if ("table".equals(key)) {
+                    tables = new NamePattern(value);
+                } else if ("schema".equals(key)) {
+                    schemas = new NamePattern(value);
+                } else if ("regex".equals(key)) {
+                    try {
+                        regex = Pattern.compile(value, Pattern.CASE_INSENSITIVE);
+                    } catch (PatternSyntaxException e) {
+                        throw new IllegalArgumentException(e.getMessage());
+                    }
+                } else {
+                    throw new IllegalArgumentException("unknown condition " + key);
+                }
+            }
+        }
+
+        boolean matches(StatementInfo info) {
+            if (types != null && !types.contains(info.type)) {
+                return false;
+            }
+            if (tables != null && !tables.matchesAny(info.tables)) {
+                return false;
+            }
+            if (schemas != null && !schemas.matchesAny(info.schemas)) {
+                return false;
+            }
+            return regex == null || regex.matcher(info.sql).find();
+        }
+    }
+
+    /**
+     * '|' separated names, matched case insensitively; exact names go to a hash set, "prefix*" patterns to a
+     * prefix list and anything else with a '*' to a regex.
+     */
+    private static final class NamePattern {
+        private final Set<String> exact = new HashSet<String>();
+        private final List<String> prefixes = new ArrayList<String>();
+        private final List<Pattern> globs = new ArrayList<Pattern>();
+
+        NamePattern(String spec) {
+            for (String name : spec.toLowerCase().split("\\|")) {
+                int star = name.indexOf('*');
+                if (star < 0) {
+                    exact.add(name);
+                } else if (star == name.length() - 1) {
+                    prefixes.add(name.substring(0, star));
+                } else {
+                    StringBuilder glob = new StringBuilder();
+                    for (String part : name.split("\\*", -1)) {
+                        if (glob.length() > 0) {
+                            glob.append(".*");
+                        }
+                        glob.append(Pattern.quote(part));
+                    }
+                    globs.add(Pattern.compile(glob.toString()));
+                }
+            }
+        }
+
+        boolean matchesAny(List<String> names) {
+            for (String name : names) {
+                if (exact.contains(name)) {
+                    return true;
+                }
+                for (String prefix : prefixes) {
+                    if (name.startsWith(prefix)) {
+                        return true;
+                    }
+                }
+                for (Pattern glob : globs) {
+                    if (glob.matcher(name).matches()) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Statement type and referenced tables, pulled out of normalized SQL.
+     */
+    static final class StatementInfo {
+        final String sql;
+        final String type;
+        final List<String> tables = new ArrayList<String>();
+        final List<String> schemas = new ArrayList<String>();
+
+        StatementInfo(String sql) {
+            this.sql = sql;
+            List<String> tokens = tokenize(sql);
+            type = tokens.isEmpty() ? "" : firstKeyword(tokens);
+            for (int i = 0; i < tokens.size(); i++) {
+                String token = tokens.get(i);
+                if ("from".equals(token) || "join".equals(token) || "into".equals(token)
+                        || ("update".equals(token) && i == 0) || "table".equals(token)) {
+                    i = readTable(tokens, i + 1);
+                    // from a, b c, d as e
+                    while ("from".equals(token) && i + 1 < tokens.size()) {
+                        int next = i + 1;
+                        if (isIdentifier(tokens.get(next)) && !isKeyword(tokens.get(next))) {
+                            // alias
+                            next++;
+                        } else if ("as".equals(tokens.get(next)) && next + 1 < tokens.size()) {
+                            next += 2;
+                        }
+                        if (next < tokens.size() && ",".equals(tokens.get(next))) {
+                            i = readTable(tokens, next + 1);
+                        } else {
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        private static String firstKeyword(List<String> tokens) {
+            for (String token : tokens) {
+                if (!"(".equals(token)) {
+                    return token;
+                }
+            }
+            return "";
+        }
+
+        /**
+         * @return index of the last token of the table name
+         */
+        private int readTable(List<String> tokens, int i) {
+            if (i >= tokens.size() || !isIdentifier(tokens.get(i))) {
+                return i - 1;
+            }
+            String first = unquote(tokens.get(i));
+            if (i + 2 < tokens.size() && ".".equals(tokens.get(i + 1)) && isIdentifier(tokens.get(i + 2))) {
+                schemas.add(first);
+                tables.add(unquote(tokens.get(i + 2)));
+                return i + 2;
+            }
+            tables.add(first);
+            return i;
+        }
+
+        private static boolean isIdentifier(String token) {
+            char c = token.charAt(0);
+            return c == '`' || Character.isLetterOrDigit(c) || c == '_' || c == '$';
+        }
+
+        private static boolean isKeyword(String token) {
+            return "where".equals(token) || "join".equals(token) || "left".equals(token) || "right".equals(token)
+                    || "inner".equals(token) || "outer".equals(token) || "cross".equals(token)
+                    || "on".equals(token) || "group".equals(token) || "order".equals(token)
+                    || "limit".equals(token) || "having".equals(token) || "union".equals(token)
+                    || "for".equals(token) || "set".equals(token) || "as".equals(token);
+        }
+
+        private static String unquote(String identifier) {
+            if (identifier.length() > 1 && identifier.charAt(0) == '`') {
+                return identifier.substring(1, identifier.length() - 1).toLowerCase();
+            }
+            return identifier;
+        }
+
+        private static List<String> tokenize(String sql) {
+            List<String> tokens = new ArrayList<String>();
+            int n = sql.length();
+            int i = 0;
+            while (i < n) {
+                char c = sql.charAt(i);
+                if (c == ' ') {
+                    i++;
+                } else if (c == '`') {
+                    int end = sql.indexOf('`', i + 1);
+                    end = end < 0 ? n : end + 1;
+                    tokens.add(sql.substring(i, end));
+                    i = end;
+                } else if (Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '@') {
+                    int start = i;
+                    while (i < n && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_'
+                            || sql.charAt(i) == '$' || sql.charAt(i) == '@')) {
+                        i++;
+                    }
+                    tokens.add(sql.substring(start, i));
+                } else {
+                    tokens.add(String.valueOf(c));
+                    i++;
+                }
+            }
+            return tokens;
+        }
+    }
+}
@@ -0,0 +1,529 @@
+package com.vip;
+
+/**
+ * Single pass SQL normalizer for MySQL statements.
+ *
+ * Numeric and string literals become '?', IN lists and VALUES tuples made only of literals collapse to "(?+)",
+ * comments are dropped, keywords and identifiers are lower cased and whitespace is canonicalized, so that
+ * {@code SELECT * FROM t WHERE id IN (1, 2, 3)} and {@code select * from t where id in (7)} share one template.
+ * The 64 bit fingerprint is an FNV-1a hash of the normalized text, computed in the same pass;
+ * {@link #fingerprint(String)} does not allocate, it scans a copy of the chars in a buffer reused by the thread.
+ */
+final class SqlFingerprinter {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // token kinds, used to decide on spacing
+    private static final int NONE = 0;
+    private static final int WORD = 1;
+    private static final int OPEN = 2;
+    private static final int DOT = 3;
+    private static final int OTHER = 4;
+    // an operator, ',' or ';': a following - or + is a sign
+    private static final int OPERATOR = 5;
+
+    // words after which - and + are signs, as in "select -1" or "between -5 and -1"
+    private static final String[] SIGN_KEYWORDS = {
+            "select", "where", "and", "or", "not", "when", "then", "else", "between", "by", "limit", "offset",
+            "return", "case"};
+
+    // ASCII character classes
+    private static final byte DIGIT_CHAR = 1;
+    private static final byte WORD_CHAR = 2;
+    private static final byte OPERATOR_CHAR = 4;
+    private static final byte[] CLASSES = new byte[128];
+    private static final char[] LOWER = new char[128];
+
+    // what a token starting with an ASCII character is
+    private static final byte START_OTHER = 0;
+    private static final byte START_SPACE = 1;
+    private static final byte START_WORD = 2;
+    private static final byte START_DIGIT = 3;
+    private static final byte START_QUOTE = 4;
+    private static final byte START_BACKTICK = 5;
+    private static final byte START_QUESTION_MARK = 6;
+    private static final byte START_OPEN = 7;
+    private static final byte START_CLOSE = 8;
+    private static final byte START_DOT = 9;
+    private static final byte START_HASH = 10;
+    private static final byte START_MINUS = 11;
+    private static final byte START_SLASH = 12;
+    private static final byte[] STARTS = new byte[128];
+
+    static {
+        for (char c = 0; c < 128; c++) {
+            LOWER[c] = c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            CLASSES[c] = DIGIT_CHAR | WORD_CHAR;
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            CLASSES[c] = WORD_CHAR;
+            CLASSES[c - 32] = WORD_CHAR;
+        }
+        CLASSES['_'] = WORD_CHAR;
+        CLASSES['$'] = WORD_CHAR;
+        CLASSES['@'] = WORD_CHAR;
+        for (char c : "=<>!+-*/%&|^~:".toCharArray()) {
+            CLASSES[c] = OPERATOR_CHAR;
+        }
+        for (char c = 0; c < 128; c++) {
+            STARTS[c] = c <= ' ' ? START_SPACE
+                    : (CLASSES[c] & DIGIT_CHAR) != 0 ? START_DIGIT
+                    : (CLASSES[c] & WORD_CHAR) != 0 ? START_WORD
+                    : START_OTHER;
+        }
+        STARTS['\''] = START_QUOTE;
+        STARTS['"'] = START_QUOTE;
+        STARTS['`'] = START_BACKTICK;
+        STARTS['?'] = START_QUESTION_MARK;
+        STARTS['('] = START_OPEN;
+        STARTS[')'] = START_CLOSE;
+        STARTS[','] = START_CLOSE;
+        STARTS[';'] = START_CLOSE;
+        STARTS['.'] = START_DOT;
+        STARTS['#'] = START_HASH;
+        STARTS['-'] = START_MINUS;
+        STARTS['/'] = START_SLASH;
+    }
+
+    /**
+     * the scan works on a char[], a plain array access is cheaper than String.charAt() with its bounds and coder checks
+     */
+    private static final ThreadLocal<char[]> buffers = new ThreadLocal<char[]>() {
+        @Override
+        protected char[] initialValue() {
+            return new char[1024];
+        }
+    };
+    /**
+     * a buffer grown beyond this by a huge statement is dropped after use instead of being kept by the thread
+     */
+    private static final int RETAINED_CAPACITY = 64 * 1024;
+
+    private SqlFingerprinter() {
+    }
+
+    static long fingerprint(String sql) {
+        char[] chars = chars(sql);
+        long h = scan(chars, sql.length(), null);
+        release(chars);
+        return h;
+    }
+
+    static String normalize(String sql) {
+        StringBuilder out = new StringBuilder(sql.length());
+        char[] chars = chars(sql);
+        scan(chars, sql.length(), out);
+        release(chars);
+        return out.toString();
+    }
+
+    /**
+     * @return the chars of sql in this thread's reused buffer
+     */
+    private static char[] chars(String sql) {
+        int n = sql.length();
+        char[] chars = buffers.get();
+        if (chars.length < n) {
+            chars = new char[Math.max(n, chars.length * 2)];
+            buffers.set(chars);
+        }
+        sql.getChars(0, n, chars, 0);
+        return chars;
+    }
+
+    private static void release(char[] chars) {
+        if (chars.length > RETAINED_CAPACITY) {
+            buffers.remove();
+        }
+    }
+
+    /**
+     * Normalize sql, appending the normalized text to out when it is not null.
+     *
+     * @return the fingerprint of the normalized text
+     */
+    private static long scan(char[] sql, int n, StringBuilder out) {
+        long h = FNV_OFFSET;
+        int prev = NONE;
+        // the last word was IN / VALUES, so a following literal list collapses
+        boolean listKeyword = false;
+        // bounds of the last word, to tell "select -1" from "a -1"
+        int wordStart = 0;
+        int wordEnd = -1;
+        int i = 0;
+        while (i < n) {
+            char c = sql[i];
+            // one table switch per token, a chain of ifs mispredicted on every change of token kind
+            switch (c < 128 ? STARTS[c] : START_WORD) {
+                case START_SPACE:
+                    i++;
+                    break;
+                case START_HASH:
+                    i = lineEnd(sql, n, i);
+                    break;
+                case START_MINUS:
+                case START_SLASH:
+                case START_OTHER: {
+                    if (c == '-' && i + 1 < n && sql[i + 1] == '-' && (i + 2 == n || sql[i + 2] <= ' ')) {
+                        i = lineEnd(sql, n, i);
+                        break;
+                    }
+                    if (c == '/' && i + 1 < n && sql[i + 1] == '*') {
+                        i = commentEnd(sql, n, i + 2);
+                        break;
+                    }
+                    // a = -1, a=-1 and a = 1 are all "a = ?", but a - 1 keeps its operator
+                    if (signedNumberAt(sql, n, i) && isSignContext(sql, i, prev, wordStart, wordEnd)) {
+                        i = skipNumber(sql, n, i + 1);
+                        h = space(h, out, prev);
+                        h = emit(h, out, '?');
+                        prev = WORD;
+                        listKeyword = false;
+                        break;
+                    }
+                    // operator run, e.g. =, <=, <>, :=, ||
+                    h = space(h, out, prev);
+                    int runStart = i;
+                    while (i < n && isOperatorChar(sql[i])) {
+                        // don't swallow the start of a comment
+                        char o = sql[i];
+                        if (o == '/' && i + 1 < n && sql[i + 1] == '*') {
+                            break;
+                        }
+                        // leave the sign of a=-1 to the next token
+                        if (i > runStart && signedNumberAt(sql, n, i)) {
+                            break;
+                        }
+                        h = emit(h, out, o);
+                        i++;
+                    }
+                    if (i < n && sql[i] == c && !isOperatorChar(c)) {
+                        // some other character we know nothing about, keep it as is
+                        h = emit(h, out, c);
+                        i++;
+                    }
+                    prev = OPERATOR;
+                    listKeyword = false;
+                    break;
+                }
+                case START_QUOTE:
+                    i = skipString(sql, n, i);
+                    h = space(h, out, prev);
+                    h = emit(h, out, '?');
+                    prev = WORD;
+                    listKeyword = false;
+                    break;
+                case START_DOT:
+                case START_DIGIT:
+                    // .5 is a number, t.c is not
+                    if (c == '.' && !(i + 1 < n && isDigit(sql[i + 1]) && prev != WORD)) {
+                        h = emit(h, out, c);
+                        prev = DOT;
+                        listKeyword = false;
+                        i++;
+                        break;
+                    }
+                    i = skipNumber(sql, n, i);
+                    h = space(h, out, prev);
+                    h = emit(h, out, '?');
+                    prev = WORD;
+                    listKeyword = false;
+                    break;
+                case START_QUESTION_MARK:
+                    i++;
+                    h = space(h, out, prev);
+                    h = emit(h, out, '?');
+                    prev = WORD;
+                    listKeyword = false;
+                    break;
+                case START_BACKTICK: {
+                    int end = i + 1;
+                    while (end < n && sql[end] != '`') {
+                        end++;
+                    }
+                    end = end < n ? end + 1 : n;
+                    h = space(h, out, prev);
+                    for (; i < end; i++) {
+                        h = emit(h, out, sql[i]);
+                    }
+                    prev = WORD;
+                    listKeyword = false;
+                    break;
+                }
+                case START_WORD: {
+                    h = space(h, out, prev);
+                    int start = i;
+                    long wordHash = h;
+                    do {
+                        wordHash = (wordHash ^ toLower(sql[i])) * FNV_PRIME;
+                        i++;
+                    } while (i < n && isWordChar(sql[i]));
+                    // x'0A', b'01', n'text' and _charset'text' are literals too
+                    if (i < n && sql[i] == '\''
+                            && (i - start == 1 && "xXbBnN".indexOf(c) >= 0 || c == '_')) {
+                        i = skipString(sql, n, i);
+                        h = emit(h, out, '?');
+                        prev = WORD;
+                        listKeyword = false;
+                        break;
+                    }
+                    if (out != null) {
+                        for (int j = start; j < i; j++) {
+                            out.append(toLower(sql[j]));
+                        }
+                    }
+                    h = wordHash;
+                    prev = WORD;
+                    wordStart = start;
+                    wordEnd = i;
+                    listKeyword = wordIs(sql, n, start, i, "in") || wordIs(sql, n, start, i, "values")
+                            || wordIs(sql, n, start, i, "value");
+                    break;
+                }
+                case START_OPEN: {
+                    int end = listKeyword ? literalList(sql, n, i) : -1;
+                    if (end > 0) {
+                        // VALUES (1, 'a'), (2, 'b') -> values (?+)
+                        while (true) {
+                            int j = skipSpace(sql, n, end);
+                            if (j >= n || sql[j] != ',') {
+                                break;
+                            }
+                            int next = literalList(sql, n, skipSpace(sql, n, j + 1));
+                            if (next < 0) {
+                                break;
+                            }
+                            end = next;
+                        }
+                        h = space(h, out, prev);
+                        h = emit(h, out, '(');
+                        h = emit(h, out, '?');
+                        h = emit(h, out, '+');
+                        h = emit(h, out, ')');
+                        prev = OTHER;
+                        i = end;
+                    } else {
+                        h = space(h, out, prev);
+                        h = emit(h, out, '(');
+                        prev = OPEN;
+                        i++;
+                    }
+                    listKeyword = false;
+                    break;
+                }
+                default:
+                    // START_CLOSE: ) , ;
+                    h = emit(h, out, c);
+                    prev = c == ')' ? OTHER : OPERATOR;
+                    listKeyword = false;
+                    i++;
+            }
+        }
+        return h;
+    }
+
+    /**
+     * @return true when the - or + at i starts a number, e.g. -1, +2, -.5
+     */
+    private static boolean signedNumberAt(char[] sql, int n, int i) {
+        char c = sql[i];
+        if ((c != '-' && c != '+') || i + 1 >= n) {
+            return false;
+        }
+        char d = sql[i + 1];
+        return isDigit(d) || d == '.' && i + 2 < n && isDigit(sql[i + 2]);
+    }
+
+    /**
+     * @return true when a - or + at i is a sign rather than a binary operator: it starts the statement,
+     * or follows '(', ',', an operator or a keyword that takes an expression
+     */
+    private static boolean isSignContext(char[] sql, int i, int prev, int wordStart, int wordEnd) {
+        if (prev == NONE || prev == OPEN || prev == OPERATOR) {
+            return true;
+        }
+        if (prev != WORD) {
+            return false;
+        }
+        int j = i;
+        while (j > 0 && sql[j - 1] <= ' ') {
+            j--;
+        }
+        if (j != wordEnd) {
+            // a literal, or a comment in between
+            return false;
+        }
+        for (String keyword : SIGN_KEYWORDS) {
+            if (wordIs(sql, wordEnd, wordStart, wordEnd, keyword)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long space(long h, StringBuilder out, int prev) {
+        if (prev == NONE || prev == OPEN || prev == DOT) {
+            return h;
+        }
+        return emit(h, out, ' ');
+    }
+
+    private static long emit(long h, StringBuilder out, char c) {
+        if (out != null) {
+            out.append(c);
+        }
+        return (h ^ c) * FNV_PRIME;
+    }
+
+    /**
+     * @return the index after the closing quote of the string literal starting at i
+     */
+    private static int skipString(char[] sql, int n, int i) {
+        char quote = sql[i];
+        i++;
+        while (i < n) {
+            char c = sql[i];
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote) {
+                if (i + 1 < n && sql[i + 1] == quote) {
+                    // doubled quote
+                    i += 2;
+                } else {
+                    return i + 1;
+                }
+            } else {
+                i++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Covers 12, 1.5, 1e-3, 0x1F and 0b101.
+     */
+    private static int skipNumber(char[] sql, int n, int i) {
+        while (i < n) {
+            char c = sql[i];
+            if (isDigit(c) || c == '.' || isLetter(c)) {
+                i++;
+            } else if ((c == '-' || c == '+') && (sql[i - 1] == 'e' || sql[i - 1] == 'E')) {
+                i++;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * @return the index after the ')' when the group starting at i only holds literals and placeholders,
+     * otherwise -1
+     */
+    private static int literalList(char[] sql, int n, int i) {
+        if (i >= n || sql[i] != '(') {
+            return -1;
+        }
+        i++;
+        while (true) {
+            i = skipSpace(sql, n, i);
+            if (i >= n) {
+                return -1;
+            }
+            char c = sql[i];
+            if (c == '\'' || c == '"') {
+                i = skipString(sql, n, i);
+            } else if (c == '?') {
+                i++;
+            } else if (isDigit(c) || ((c == '-' || c == '+' || c == '.') && i + 1 < n && isDigit(sql[i + 1]))) {
+                i = skipNumber(sql, n, i + 1);
+            } else if (wordAt(sql, n, i, "null")) {
+                i += 4;
+            } else {
+                return -1;
+            }
+            i = skipSpace(sql, n, i);
+            if (i >= n) {
+                return -1;
+            }
+            c = sql[i];
+            if (c == ')') {
+                return i + 1;
+            }
+            if (c != ',') {
+                return -1;
+            }
+            i++;
+        }
+    }
+
+    /**
+     * @return the index of the newline ending the comment starting at i, or n
+     */
+    private static int lineEnd(char[] sql, int n, int i) {
+        while (i < n && sql[i] != '\n') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return the index after the "*&#47;" closing the comment whose body starts at i
+     */
+    private static int commentEnd(char[] sql, int n, int i) {
+        for (; i + 1 < n; i++) {
+            if (sql[i] == '*' && sql[i + 1] == '/') {
+                return i + 2;
+            }
+        }
+        return n;
+    }
+
+    private static int skipSpace(char[] sql, int n, int i) {
+        while (i < n && sql[i] <= ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean wordIs(char[] sql, int n, int start, int end, String lowerWord) {
+        return end - start == lowerWord.length() && wordAt(sql, n, start, lowerWord);
+    }
+
+    private static boolean wordAt(char[] sql, int n, int i, String lowerWord) {
+        int len = lowerWord.length();
+        if (i + len > n) {
+            return false;
+        }
+        for (int k = 0; k < len; k++) {
+            if (toLower(sql[i + k]) != lowerWord.charAt(k)) {
+                return false;
+            }
+        }
+        return i + len == n || !isWordChar(sql[i + len]);
+    }
+
+    private static boolean isDigit(char c) {
+        return c < 128 && (CLASSES[c] & DIGIT_CHAR) != 0;
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isWordChar(char c) {
+        return c >= 128 || (CLASSES[c] & WORD_CHAR) != 0;
+    }
+
+    private static boolean isOperatorChar(char c) {
+        return c < 128 && (CLASSES[c] & OPERATOR_CHAR) != 0;
+    }
+
+    private static char toLower(char c) {
+        // a table lookup, mixed case keywords and identifiers make a compare on 'A'..'Z' mispredict
+        return c < 128 ? LOWER[c] : c;
+    }
+}
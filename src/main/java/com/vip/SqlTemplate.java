@@ -0,0 +1,79 @@
+package com.vip;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A normalized SQL statement shape and its execution statistics. Every execution of a prepared statement, and
+ * every plain statement whose SQL normalizes to the same text, is counted here.
+ */
+final class SqlTemplate {
+
+    private static final boolean histograms = AgentConfig.getBoolean("stats.histograms", true);
+
+    final int id;
+    final long fingerprint;
+    /**
+     * normalized SQL, literals replaced by '?'
+     */
+    final String sql;
+    /**
+     * outcome of the SqlFilter, decided once when the template is created
+     */
+    final boolean traced;
+
+    final LongAdder executions = new LongAdder();
+    final LongAdder totalNanos = new LongAdder();
+    final LongAdder rows = new LongAdder();
+    final LongAdder errors = new LongAdder();
+    final AtomicLong maxNanos = new AtomicLong();
+    /**
+     * execution time distribution, null when disabled with {@code jdbclog.stats.histograms=false}
+     */
+    final LatencyHistogram latency = histograms ? new LatencyHistogram() : null;
+    /**
+     * bind value statistics per parameter, null when disabled or when the template collapses lists of varying
+     * length, see {@link BindSketches#applies(String)}
+     */
+    final BindSketches binds;
+    /**
+     * failures by vendor error code, see {@link StatementFailures}
+     */
+    final ConcurrentMap<Integer, StatementFailures.ErrorCount> errorCodes =
+            new ConcurrentHashMap<Integer, StatementFailures.ErrorCount>(4);
+
+    SqlTemplate(int id, long fingerprint, String sql, boolean traced) {
+        this.id = id;
+        this.fingerprint = fingerprint;
+        this.sql = sql;
+        this.traced = traced;
+        this.binds = BindSketches.enabled && BindSketches.applies(sql) ? new BindSketches() : null;
+    }
+
+    /**
+     * @param rows affected rows, or -1 when unknown
+     */
+    void record(long nanos, long rows, boolean failed) {
+        executions.increment();
+        totalNanos.add(nanos);
+        if (latency != null) {
+            latency.record(nanos);
+        }
+        if (rows > 0) {
+            this.rows.add(rows);
+        }
+        if (failed) {
+            errors.increment();
+        }
+        updateMax(nanos);
+    }
+
+    void updateMax(long nanos) {
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+}
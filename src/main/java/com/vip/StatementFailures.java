@@ -0,0 +1,203 @@
+package com.vip;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statements the driver failed, counted per template and vendor error code (1213 deadlock, 1205 lock wait timeout,
+ * 1062 duplicate key, ...) and logged with the rendered SQL, the time until the failure, SQLState and code.
+ *
+ * Every failure is counted, in LongAdders so a deadlock storm on many threads doesn't contend on one counter. Logging
+ * is limited per error code to {@code jdbclog.failure.logPerWindow} lines every {@code jdbclog.failure.logWindowMs};
+ * the failures left out are counted and the next logged line says how many there were. The SQL is only rendered for
+ * failures that are logged.
+ */
+final class StatementFailures {
+
+    private static final Logger log = LoggerFactory.getLogger(StatementFailures.class);
+
+    /**
+     * code of failures that are not SQLExceptions
+     */
+    static final int NOT_SQL = Integer.MIN_VALUE;
+    /**
+     * code failures are counted under once a template has maxCodesPerTemplate codes
+     */
+    static final int OTHER_CODE = Integer.MIN_VALUE + 1;
+
+    private static final int logPerWindow = AgentConfig.getInt("failure.logPerWindow", 10);
+    private static final long logWindowMs = Math.max(1, AgentConfig.getLong("failure.logWindowMs", 10000L));
+    private static final int maxCodesPerTemplate = AgentConfig.getInt("failure.maxCodesPerTemplate", 32);
+    private static final int maxLimitedCodes = 256;
+
+    private static final ConcurrentMap<Integer, RateLimit> limits = new ConcurrentHashMap<Integer, RateLimit>();
+    private static final RateLimit OTHER_LIMIT = new RateLimit();
+
+    private StatementFailures() {
+    }
+
+    /**
+     * Count a failure against its template and error code.
+     */
+    static ErrorCount record(SqlTemplate template, Throwable failure) {
+        int code = failure instanceof SQLException ? ((SQLException) failure).getErrorCode() : NOT_SQL;
+        ErrorCount count = template.errorCodes.get(code);
+        if (count == null) {
+            if (template.errorCodes.size() >= maxCodesPerTemplate) {
+                code = OTHER_CODE;
+            }
+            String sqlState = failure instanceof SQLException ? ((SQLException) failure).getSQLState() : null;
+            ErrorCount created = new ErrorCount(code, sqlState);
+            count = template.errorCodes.putIfAbsent(code, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.count.increment();
+        return count;
+    }
+
+    /**
+     * @return true when this failure may be logged, false when its error code already used up the current window
+     */
+    static boolean shouldLog(ErrorCount count) {
+        RateLimit limit = limits.get(count.code);
+        if (limit == null) {
+            if (limits.size() < maxLimitedCodes) {
+                limits.putIfAbsent(count.code, new RateLimit());
+                limit = limits.get(count.code);
+            } else {
+                limit = OTHER_LIMIT;
+            }
+        }
+        return limit.tryAcquire(System.currentTimeMillis());
+    }
+
+    /**
+     * @param renderedSql SQL with its bind variables
+     */
+    static void log(SqlTemplate template, ErrorCount count, String renderedSql, String operation,
+                    long durationNanos, Throwable failure) {
+        RateLimit limit = limits.get(count.code);
+        long suppressed = (limit != null ? limit : OTHER_LIMIT).suppressed.sumThenReset();
+        StringBuilder message = new StringBuilder("SQL failed after ").append(durationNanos / 1000000).append(" ms");
+        if (failure instanceof SQLException) {
+            message.append(", SQLState ").append(((SQLException) failure).getSQLState())
+                    .append(" code ").append(((SQLException) failure).getErrorCode());
+        }
+        message.append(" (").append(count.count.sum()).append(" times so far for template ").append(template.id)
+                .append("): ").append(failure).append("\n").append(operation).append(": ").append(renderedSql);
+        if (suppressed > 0) {
+            message.append("\n").append(suppressed).append(" more failures with this code were not logged");
+        }
+        count.lastSql = renderedSql;
+        count.lastMillis = System.currentTimeMillis();
+        log.warn(message.toString());
+    }
+
+    /**
+     * @return e.g. "1213 x10, 1205 x2", empty when the template never failed
+     */
+    static String describe(SqlTemplate template) {
+        List<ErrorCount> counts = sorted(template);
+        StringBuilder out = new StringBuilder();
+        for (ErrorCount c : counts) {
+            if (out.length() > 0) {
+                out.append(", ");
+            }
+            out.append(c.label()).append(" x").append(c.count.sum());
+        }
+        return out.toString();
+    }
+
+    /**
+     * All templates that failed, with their error codes and the last logged statement of each code.
+     */
+    static String dump(List<SqlTemplate> templates) {
+        StringBuilder out = new StringBuilder("failed statements by template and error code:");
+        for (SqlTemplate t : templates) {
+            List<ErrorCount> counts = sorted(t);
+            if (counts.isEmpty()) {
+                continue;
+            }
+            out.append("\n").append(t.errors.sum()).append(" failed of ").append(t.executions.sum()).append(": ")
+                    .append(t.sql);
+            for (ErrorCount c : counts) {
+                out.append("\n  ").append(c.label());
+                if (c.sqlState != null) {
+                    out.append(" (SQLState ").append(c.sqlState).append(')');
+                }
+                out.append(" x").append(c.count.sum());
+                if (c.lastSql != null) {
+                    out.append(", last logged ").append(new java.sql.Timestamp(c.lastMillis)).append(": ")
+                            .append(c.lastSql);
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private static List<ErrorCount> sorted(SqlTemplate template) {
+        List<ErrorCount> counts = new ArrayList<ErrorCount>(template.errorCodes.values());
+        Collections.sort(counts, new Comparator<ErrorCount>() {
+            @Override
+            public int compare(ErrorCount a, ErrorCount b) {
+                return Long.compare(b.count.sum(), a.count.sum());
+            }
+        });
+        return counts;
+    }
+
+    /**
+     * Failures of one template with one error code.
+     */
+    static final class ErrorCount {
+        final int code;
+        final String sqlState;
+        final LongAdder count = new LongAdder();
+        volatile String lastSql;
+        volatile long lastMillis;
+
+        ErrorCount(int code, String sqlState) {
+            this.code = code;
+            this.sqlState = sqlState;
+        }
+
+        String label() {
+            return code == NOT_SQL ? "non-SQL" : code == OTHER_CODE ? "other" : String.valueOf(code);
+        }
+    }
+
+    /**
+     * At most logPerWindow permits per window of logWindowMs, shared by all threads.
+     */
+    private static final class RateLimit {
+        private final AtomicLong window = new AtomicLong(-1);
+        private final AtomicInteger used = new AtomicInteger();
+        final LongAdder suppressed = new LongAdder();
+
+        boolean tryAcquire(long nowMillis) {
+            long current = nowMillis / logWindowMs;
+            long w = window.get();
+            if (w != current && window.compareAndSet(w, current)) {
+                used.set(0);
+            }
+            if (used.incrementAndGet() <= logPerWindow) {
+                return true;
+            }
+            suppressed.increment();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.vip;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Registry of live PreparedStatementProxy instances.
+ *
+ * Each proxy is held through a weak reference only, so tracking never keeps a statement alive. A proxy that is
+ * garbage collected without close() having been called shows up on the reference queue and is reported as a leak,
+ * together with its SQL and, for a sampled subset of statements, the stack that created it. Periodically the
+ * tracker also reports how many statements are open per {@link SqlTemplate} and how much memory their captured
+ * parameters retain; that report is logged at INFO only when statements leaked since the last one, at DEBUG
+ * otherwise.
+ *
+ * Off unless {@code jdbclog.tracker.enabled=true}.
+ */
+final class StatementTracker {
+
+    private static final Logger log = LoggerFactory.getLogger(StatementTracker.class);
+
+    static final StatementTracker INSTANCE = new StatementTracker(
+            AgentConfig.getBoolean("tracker.enabled", false),
+            AgentConfig.getLong("tracker.reportIntervalMs", 60000L),
+            AgentConfig.getInt("tracker.stackSampleRate", 100),
+            AgentConfig.getInt("tracker.topTemplates", 20));
+
+    private final boolean enabled;
+    private final long reportIntervalMs;
+    /**
+     * capture the creation stack of one statement in every stackSampleRate, 0 disables stacks
+     */
+    private final int stackSampleRate;
+    private final int topTemplates;
+
+    private final ReferenceQueue<PreparedStatementProxy> queue = new ReferenceQueue<PreparedStatementProxy>();
+    private final Set<TrackedStatement> live =
+            Collections.newSetFromMap(new ConcurrentHashMap<TrackedStatement, Boolean>());
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong leaked = new AtomicLong();
+    // only touched by the reaper thread
+    private long leakedAtLastReport;
+
+    private StatementTracker(boolean enabled, long reportIntervalMs, int stackSampleRate, int topTemplates) {
+        this.enabled = enabled;
+        this.reportIntervalMs = reportIntervalMs;
+        this.stackSampleRate = stackSampleRate;
+        this.topTemplates = topTemplates;
+        if (enabled) {
+            Thread reaper = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    reap();
+                }
+            }, "jdbc-log-statement-tracker");
+            reaper.setDaemon(true);
+            reaper.start();
+        }
+    }
+
+    /**
+     * Start tracking a newly created proxy.
+     *
+     * @return the handle to pass to {@link #untrack(TrackedStatement)} on close, or null when tracking is disabled.
+     */
+    TrackedStatement track(PreparedStatementProxy proxy, String sql, SqlTemplate template) {
+        if (!enabled) {
+            return null;
+        }
+        long n = created.incrementAndGet();
+        Throwable creation = stackSampleRate > 0 && n % stackSampleRate == 0
+                ? new Throwable("statement created here") : null;
+        TrackedStatement ref = new TrackedStatement(proxy, sql, template, creation, queue);
+        live.add(ref);
+        return ref;
+    }
+
+    /**
+     * Mark a statement as properly closed.
+     */
+    void untrack(TrackedStatement ref) {
+        if (ref != null && live.remove(ref)) {
+            ref.clear();
+        }
+    }
+
+    private void reap() {
+        long nextReport = System.currentTimeMillis() + reportIntervalMs;
+        while (true) {
+            try {
+                long wait = Math.max(1L, nextReport - System.currentTimeMillis());
+                Reference<? extends PreparedStatementProxy> ref = queue.remove(wait);
+                while (ref != null) {
+                    reportLeak((TrackedStatement) ref);
+                    ref = queue.poll();
+                }
+                if (System.currentTimeMillis() >= nextReport) {
+                    reportOpenStatements();
+                    nextReport = System.currentTimeMillis() + reportIntervalMs;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Throwable t) {
+                // never let the tracker thread die
+                log.debug("statement tracker failed: " + t.getMessage());
+            }
+        }
+    }
+
+    private void reportLeak(TrackedStatement ref) {
+        if (!live.remove(ref)) {
+            // closed before it was collected
+            return;
+        }
+        leaked.incrementAndGet();
+        if (ref.creation != null) {
+            log.warn("PreparedStatement was never closed: " + ref.sql, ref.creation);
+        } else {
+            log.warn("PreparedStatement was never closed: " + ref.sql);
+        }
+    }
+
+    private void reportOpenStatements() {
+        Map<SqlTemplate, long[]> perTemplate = new IdentityHashMap<SqlTemplate, long[]>();
+        for (TrackedStatement ref : live) {
+            PreparedStatementProxy proxy = ref.get();
+            if (proxy == null) {
+                continue;
+            }
+            long[] stats = perTemplate.get(ref.template);
+            if (stats == null) {
+                stats = new long[2];
+                perTemplate.put(ref.template, stats);
+            }
+            stats[0]++;
+            stats[1] += proxy.retainedParameterBytes();
+        }
+        if (perTemplate.isEmpty() || (!log.isDebugEnabled() && leaked.get() == leakedAtLastReport)) {
+            return;
+        }
+        List<Map.Entry<SqlTemplate, long[]>> entries =
+                new ArrayList<Map.Entry<SqlTemplate, long[]>>(perTemplate.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<SqlTemplate, long[]>>() {
+            @Override
+            public int compare(Map.Entry<SqlTemplate, long[]> a, Map.Entry<SqlTemplate, long[]> b) {
+                return Long.compare(b.getValue()[0], a.getValue()[0]);
+            }
+        });
+        StringBuilder report = new StringBuilder();
+        report.append("open PreparedStatements: ").append(live.size())
+                .append(", created: ").append(created.get())
+                .append(", leaked: ").append(leaked.get());
+        for (int i = 0; i < entries.size() && i < topTemplates; i++) {
+            Map.Entry<SqlTemplate, long[]> e = entries.get(i);
+            report.append("\n  open=").append(e.getValue()[0])
+                    .append(" paramBytes=").append(e.getValue()[1])
+                    .append(" template=").append(e.getKey().id)
+                    .append(" sql=").append(e.getKey().sql);
+        }
+        long leakedNow = leaked.get();
+        if (leakedNow > leakedAtLastReport) {
+            log.info(report.toString());
+        } else {
+            log.debug(report.toString());
+        }
+        leakedAtLastReport = leakedNow;
+    }
+
+    /**
+     * Weak handle to a proxy. Keeps what is needed to report the statement after the proxy itself is gone.
+     */
+    static final class TrackedStatement extends WeakReference<PreparedStatementProxy> {
+        final String sql;
+        final SqlTemplate template;
+        final Throwable creation;
+
+        TrackedStatement(PreparedStatementProxy proxy, String sql, SqlTemplate template, Throwable creation,
+                         ReferenceQueue<PreparedStatementProxy> queue) {
+            super(proxy, queue);
+            this.sql = sql;
+            this.template = template;
+            this.creation = creation;
+        }
+    }
+}
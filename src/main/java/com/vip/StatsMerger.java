@@ -0,0 +1,151 @@
+package com.vip;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Combines {@link StatsSnapshot} files of many nodes into one report: the top templates by total time and latency
+ * percentiles over all of them.
+ *
+ * <pre>
+ * java -cp jdbc-log-agent.jar com.vip.StatsMerger [--delta] [--top 20] [--binds] [--out merged.snap] files or dirs...
+ * </pre>
+ * Snapshots are cumulative per JVM, so of several snapshots of one JVM only the newest is used; with {@code --delta}
+ * the oldest given one is subtracted from it, which limits counters and histograms to the time between the two (bind
+ * sketches and maxima stay cumulative). Snapshots of different JVMs are added. {@code --out} writes the merged
+ * statistics as a snapshot again, so merges can be merged further.
+ */
+public class StatsMerger {
+
+    public static void main(String[] args) throws IOException {
+        boolean delta = false;
+        boolean binds = false;
+        int top = 20;
+        String out = null;
+        List<File> files = new ArrayList<File>();
+        for (int i = 0; i < args.length; i++) {
+            if ("--delta".equals(args[i])) {
+                delta = true;
+            } else if ("--binds".equals(args[i])) {
+                binds = true;
+            } else if ("--top".equals(args[i]) && i + 1 < args.length) {
+                top = Integer.parseInt(args[++i]);
+            } else if ("--out".equals(args[i]) && i + 1 < args.length) {
+                out = args[++i];
+            } else {
+                addFiles(new File(args[i]), files);
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println("usage: StatsMerger [--delta] [--top n] [--binds] [--out merged.snap]"
+                    + " <snapshot files or directories>");
+            System.exit(2);
+        }
+        Map<Long, SqlTemplate> templates = new HashMap<Long, SqlTemplate>();
+        long[] window = merge(files, delta, templates);
+        List<SqlTemplate> merged = new ArrayList<SqlTemplate>(templates.values());
+        if (out != null) {
+            StatsSnapshot.write(new File(out), "merged-" + Long.toHexString(System.nanoTime()), window[0], window[1],
+                    merged);
+        }
+        report(System.out, merged, top, binds);
+    }
+
+    private static void addFiles(File file, List<File> files) {
+        if (file.isDirectory()) {
+            File[] snapshots = file.listFiles(new FilenameFilter() {
+                @Override
+                public boolean accept(File dir, String name) {
+                    return name.endsWith(StatsSnapshot.SUFFIX);
+                }
+            });
+            if (snapshots != null) {
+                Collections.addAll(files, snapshots);
+            }
+        } else {
+            files.add(file);
+        }
+    }
+
+    /**
+     * @return oldest and newest snapshot time of the files used
+     */
+    static long[] merge(List<File> files, boolean delta, Map<Long, SqlTemplate> target) throws IOException {
+        // newest and oldest snapshot of every JVM
+        Map<String, File[]> jvms = new LinkedHashMap<String, File[]>();
+        Map<File, StatsSnapshot> headers = new HashMap<File, StatsSnapshot>();
+        for (File file : files) {
+            StatsSnapshot header = StatsSnapshot.readHeader(file);
+            headers.put(file, header);
+            String jvm = header.nodeName + "@" + header.jvmStartMillis;
+            File[] range = jvms.get(jvm);
+            if (range == null) {
+                jvms.put(jvm, new File[]{file, file});
+            } else {
+                if (header.takenMillis > headers.get(range[0]).takenMillis) {
+                    range[0] = file;
+                }
+                if (header.takenMillis < headers.get(range[1]).takenMillis) {
+                    range[1] = file;
+                }
+            }
+        }
+        long[] window = {Long.MAX_VALUE, Long.MIN_VALUE};
+        for (File[] range : jvms.values()) {
+            StatsSnapshot.readInto(range[0], target, 1);
+            window[1] = Math.max(window[1], headers.get(range[0]).takenMillis);
+            if (delta && range[1] != range[0]) {
+                StatsSnapshot.readInto(range[1], target, -1);
+                window[0] = Math.min(window[0], headers.get(range[1]).takenMillis);
+            } else {
+                window[0] = Math.min(window[0], headers.get(range[0]).jvmStartMillis);
+            }
+        }
+        System.err.println("merged " + jvms.size() + " JVMs from " + files.size() + " snapshot files");
+        return window;
+    }
+
+    static void report(PrintStream out, List<SqlTemplate> templates, int top, boolean binds) {
+        LatencyHistogram overall = new LatencyHistogram();
+        long errors = 0;
+        for (SqlTemplate t : templates) {
+            if (t.latency != null) {
+                overall.merge(t.latency);
+            }
+            errors += t.errors.sum();
+        }
+        out.println("all statements: " + overall.summary() + " errors=" + errors + " templates=" + templates.size());
+        Collections.sort(templates, new Comparator<SqlTemplate>() {
+            @Override
+            public int compare(SqlTemplate a, SqlTemplate b) {
+                return Long.compare(b.totalNanos.sum(), a.totalNanos.sum());
+            }
+        });
+        for (int i = 0; i < templates.size() && i < top; i++) {
+            SqlTemplate t = templates.get(i);
+            long count = t.executions.sum();
+            if (count <= 0) {
+                break;
+            }
+            out.println("  totalMs=" + t.totalNanos.sum() / 1000000
+                    + " " + (t.latency != null ? t.latency.summary() : "count=" + count)
+                    + " rows=" + t.rows.sum() + " errors=" + t.errors.sum() + " sql=" + t.sql);
+            if (binds && t.binds != null) {
+                StringBuilder dump = new StringBuilder();
+                t.binds.dump(dump);
+                if (dump.length() > 0) {
+                    out.println(dump.substring(1));
+                }
+            }
+        }
+    }
+}
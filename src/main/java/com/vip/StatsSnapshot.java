@@ -0,0 +1,306 @@
+package com.vip;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Periodically persists the per template statistics - counters, latency histogram and bind value sketches - to a
+ * binary snapshot file that {@link StatsMerger} combines across nodes and time.
+ *
+ * Enabled with {@code jdbclog.stats.snapshotDir=/path}. Every {@code jdbclog.stats.snapshotIntervalMs} and once more at
+ * shutdown a file {@code jdbclog-<node>-<millis>.snap} is written to a temporary name and renamed into place, so a
+ * reader never sees half a snapshot; the newest {@code jdbclog.stats.snapshotKeep} files of this JVM are kept.
+ * Statistics are cumulative since the JVM started, the difference of two snapshots of one JVM covers the time between
+ * them.
+ *
+ * File layout, all big endian: magic "JLSNP", int version, string node, long JVM start, long snapshot time (epoch
+ * millis), int template count, then per template:
+ * <pre>
+ *   long fingerprint, string sql, long executions, long totalNanos, long rows, long errors, long maxNanos,
+ *   int buckets, (short bucket, long count) per non empty histogram bucket,
+ *   int parameters, per parameter: int index, byte precision, registers, int entries,
+ *       (long hash, long count, long error, value) per top-k entry
+ * </pre>
+ * Strings and values are encoded as in the {@link WorkloadRecorder} capture file.
+ */
+final class StatsSnapshot {
+
+    private static final Logger log = LoggerFactory.getLogger(StatsSnapshot.class);
+
+    static final byte[] MAGIC = {'J', 'L', 'S', 'N', 'P'};
+    static final int VERSION = 1;
+
+    static final String SUFFIX = ".snap";
+
+    private static final String directory = AgentConfig.getString("stats.snapshotDir", null);
+    private static final long intervalMs = AgentConfig.getLong("stats.snapshotIntervalMs", 60000L);
+    private static final int keep = AgentConfig.getInt("stats.snapshotKeep", 60);
+    private static final String node = AgentConfig.getString("stats.node",
+            ManagementFactory.getRuntimeMXBean().getName());
+
+    final String nodeName;
+    final long jvmStartMillis;
+    final long takenMillis;
+
+    private StatsSnapshot(String nodeName, long jvmStartMillis, long takenMillis) {
+        this.nodeName = nodeName;
+        this.jvmStartMillis = jvmStartMillis;
+        this.takenMillis = takenMillis;
+    }
+
+    /**
+     * Start the snapshot thread and shutdown hook when {@code jdbclog.stats.snapshotDir} is set.
+     */
+    static void schedule() {
+        if (directory == null || intervalMs <= 0) {
+            return;
+        }
+        final File dir = new File(directory);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            log.warn("stats snapshot directory " + dir + " can't be created, snapshots disabled");
+            return;
+        }
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(intervalMs);
+                        writeSnapshot(dir);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    } catch (Throwable t) {
+                        log.warn("stats snapshot failed: " + t);
+                    }
+                }
+            }
+        }, "jdbc-log-stats-snapshot");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeSnapshot(dir);
+                } catch (Throwable t) {
+                    // the JVM is going away, nothing left to tell
+                }
+            }
+        }, "jdbc-log-stats-snapshot-final"));
+    }
+
+    private static synchronized void writeSnapshot(File dir) throws IOException {
+        String prefix = "jdbclog-" + node.replaceAll("[^A-Za-z0-9_.@-]", "_") + "-";
+        long now = System.currentTimeMillis();
+        File target = new File(dir, prefix + now + SUFFIX);
+        write(target, node, ManagementFactory.getRuntimeMXBean().getStartTime(), now, TemplateRegistry.templates());
+        removeOld(dir, prefix);
+    }
+
+    private static void removeOld(File dir, final String prefix) {
+        String[] names = dir.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File d, String name) {
+                return name.startsWith(prefix) && name.endsWith(SUFFIX);
+            }
+        });
+        if (names == null || names.length <= keep) {
+            return;
+        }
+        // the millis in the name have the same number of digits until the year 2286
+        Arrays.sort(names);
+        for (int i = 0; i < names.length - keep; i++) {
+            new File(dir, names[i]).delete();
+        }
+    }
+
+    /**
+     * Write the templates to a temporary file and rename it to target.
+     */
+    static void write(File target, String nodeName, long jvmStartMillis, long takenMillis,
+                      Collection<SqlTemplate> templates) throws IOException {
+        File tmp = new File(target.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 65536))) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            WorkloadRecorder.writeString(out, nodeName);
+            out.writeLong(jvmStartMillis);
+            out.writeLong(takenMillis);
+            out.writeInt(templates.size());
+            for (SqlTemplate t : templates) {
+                writeTemplate(out, t);
+            }
+        }
+        try {
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void writeTemplate(DataOutputStream out, SqlTemplate t) throws IOException {
+        out.writeLong(t.fingerprint);
+        WorkloadRecorder.writeString(out, t.sql);
+        out.writeLong(t.executions.sum());
+        out.writeLong(t.totalNanos.sum());
+        out.writeLong(t.rows.sum());
+        out.writeLong(t.errors.sum());
+        out.writeLong(t.maxNanos.get());
+        LatencyHistogram latency = t.latency;
+        int buckets = 0;
+        if (latency != null) {
+            for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+                if (latency.count(i) != 0) {
+                    buckets++;
+                }
+            }
+        }
+        out.writeInt(buckets);
+        for (int i = 0; buckets > 0 && i < LatencyHistogram.BUCKETS; i++) {
+            long count = latency.count(i);
+            if (count != 0) {
+                out.writeShort(i);
+                out.writeLong(count);
+                // a bucket that turned non empty since counting is left for the next snapshot
+                if (--buckets == 0) {
+                    break;
+                }
+            }
+        }
+        BindSketches binds = t.binds;
+        int parameters = 0;
+        for (int i = 0; binds != null && i < binds.parameterCount(); i++) {
+            if (binds.parameter(i) != null) {
+                parameters++;
+            }
+        }
+        out.writeInt(parameters);
+        for (int i = 0; parameters > 0 && i < binds.parameterCount(); i++) {
+            BindSketches.ParameterSketch sketch = binds.parameter(i);
+            if (sketch == null) {
+                continue;
+            }
+            out.writeInt(i);
+            out.writeByte(sketch.distinct.precision());
+            out.write(sketch.distinct.registers());
+            List<TopK.Entry> entries = sketch.top.entries();
+            out.writeInt(entries.size());
+            for (TopK.Entry e : entries) {
+                out.writeLong(e.hash);
+                out.writeLong(e.count);
+                out.writeLong(e.error);
+                WorkloadRecorder.writeValue(out, e.value);
+            }
+            if (--parameters == 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return node and times of a snapshot file, without reading its templates
+     */
+    static StatsSnapshot readHeader(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 512))) {
+            return readHeader(in, file);
+        }
+    }
+
+    private static StatsSnapshot readHeader(DataInputStream in, File file) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException(file + " is not a stats snapshot");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException(file + ": unsupported snapshot version " + version);
+        }
+        return new StatsSnapshot(WorkloadRecorder.readString(in), in.readLong(), in.readLong());
+    }
+
+    /**
+     * Add, or with sign -1 subtract, the statistics of a snapshot file to the templates in target, keyed by
+     * fingerprint. Subtracting only touches the counters and histograms, maxima and sketches can't be taken back.
+     */
+    static void readInto(File file, Map<Long, SqlTemplate> target, int sign) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536))) {
+            readHeader(in, file);
+            int templates = in.readInt();
+            for (int t = 0; t < templates; t++) {
+                long fingerprint = in.readLong();
+                String sql = WorkloadRecorder.readString(in);
+                SqlTemplate template = target.get(fingerprint);
+                if (template == null) {
+                    template = new SqlTemplate(target.size() + 1, fingerprint, sql, true);
+                    target.put(fingerprint, template);
+                }
+                template.executions.add(sign * in.readLong());
+                template.totalNanos.add(sign * in.readLong());
+                template.rows.add(sign * in.readLong());
+                template.errors.add(sign * in.readLong());
+                long maxNanos = in.readLong();
+                if (sign > 0) {
+                    template.updateMax(maxNanos);
+                }
+                int buckets = in.readInt();
+                for (int b = 0; b < buckets; b++) {
+                    int bucket = in.readShort();
+                    long count = in.readLong();
+                    if (template.latency != null) {
+                        template.latency.add(bucket, sign * count);
+                    }
+                }
+                int parameters = in.readInt();
+                for (int p = 0; p < parameters; p++) {
+                    readParameter(in, template, sign);
+                }
+            }
+        }
+    }
+
+    private static void readParameter(DataInputStream in, SqlTemplate template, int sign) throws IOException {
+        int index = in.readInt();
+        HyperLogLog distinct = new HyperLogLog(in.readByte());
+        in.readFully(distinct.registers());
+        int entries = in.readInt();
+        TopK.Entry[] top = new TopK.Entry[entries];
+        for (int i = 0; i < entries; i++) {
+            long hash = in.readLong();
+            long count = in.readLong();
+            long error = in.readLong();
+            top[i] = new TopK.Entry(hash, WorkloadRecorder.readValue(in), count, error);
+        }
+        if (sign < 0 || template.binds == null) {
+            return;
+        }
+        BindSketches.ParameterSketch sketch = template.binds.mergeTarget(index, distinct.precision(),
+                Math.max(entries, BindSketches.topK));
+        if (sketch == null || sketch.distinct.precision() != distinct.precision()) {
+            return;
+        }
+        sketch.distinct.merge(distinct);
+        for (TopK.Entry e : top) {
+            sketch.top.merge(e);
+        }
+    }
+}
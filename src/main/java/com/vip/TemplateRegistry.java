@@ -0,0 +1,141 @@
+package com.vip;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cache of SQL templates keyed by fingerprint, shared by prepared and plain statements.
+ *
+ * The number of templates is capped by {@code jdbclog.stats.maxTemplates}; statements seen after the cap is reached
+ * are counted under a single overflow template, or a second untraced one when the {@link SqlFilter} rejects them.
+ * Every {@code jdbclog.stats.reportIntervalMs} the templates with the highest total execution time are logged,
+ * followed by the state of the {@link OverheadGovernor} and the compression cost of the {@link BlockSink}.
+ */
+final class TemplateRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(TemplateRegistry.class);
+
+    private static final int maxTemplates = AgentConfig.getInt("stats.maxTemplates", 10000);
+    private static final long reportIntervalMs = AgentConfig.getLong("stats.reportIntervalMs", 60000L);
+    private static final int topTemplates = AgentConfig.getInt("stats.topTemplates", 20);
+
+    private static final ConcurrentMap<Long, SqlTemplate> templates = new ConcurrentHashMap<Long, SqlTemplate>();
+    private static final AtomicInteger ids = new AtomicInteger();
+    private static final SqlTemplate OVERFLOW = new SqlTemplate(0, 0L, "<other>", true);
+    /**
+     * statements past the cap that the SqlFilter rejects, they stay untraced
+     */
+    private static final SqlTemplate OVERFLOW_EXCLUDED = new SqlTemplate(0, -1L, "<other, excluded by filter>", false);
+
+    static {
+        StatsSnapshot.schedule();
+        if (reportIntervalMs > 0) {
+            Thread reporter = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (true) {
+                        try {
+                            Thread.sleep(reportIntervalMs);
+                            report();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        } catch (Throwable t) {
+                            log.debug("template statistics report failed: " + t.getMessage());
+                        }
+                    }
+                }
+            }, "jdbc-log-template-stats");
+            reporter.setDaemon(true);
+            reporter.start();
+        }
+    }
+
+    private TemplateRegistry() {
+    }
+
+    /**
+     * Look up or create the template of a SQL string, prepared ('?' placeholders) or with inline literals.
+     */
+    static SqlTemplate lookup(String sql) {
+        long fingerprint = SqlFingerprinter.fingerprint(sql);
+        SqlTemplate template = templates.get(fingerprint);
+        if (template != null) {
+            return template;
+        }
+        if (templates.size() >= maxTemplates) {
+            // only with filter rules is the statement normalized, once per execution of an unseen plain statement
+            if (SqlFilter.INSTANCE.hasRules() && !SqlFilter.INSTANCE.accept(SqlFingerprinter.normalize(sql))) {
+                return OVERFLOW_EXCLUDED;
+            }
+            return OVERFLOW;
+        }
+        String normalized = SqlFingerprinter.normalize(sql);
+        template = new SqlTemplate(ids.incrementAndGet(), fingerprint, normalized,
+                SqlFilter.INSTANCE.accept(normalized));
+        SqlTemplate existing = templates.putIfAbsent(fingerprint, template);
+        return existing != null ? existing : template;
+    }
+
+    static List<SqlTemplate> templates() {
+        List<SqlTemplate> all = new ArrayList<SqlTemplate>(templates.values());
+        if (OVERFLOW.executions.sum() > 0) {
+            all.add(OVERFLOW);
+        }
+        if (OVERFLOW_EXCLUDED.executions.sum() > 0) {
+            all.add(OVERFLOW_EXCLUDED);
+        }
+        return all;
+    }
+
+    private static void report() {
+        List<SqlTemplate> all = templates();
+        if (all.isEmpty()) {
+            return;
+        }
+        Collections.sort(all, new Comparator<SqlTemplate>() {
+            @Override
+            public int compare(SqlTemplate a, SqlTemplate b) {
+                return Long.compare(b.totalNanos.sum(), a.totalNanos.sum());
+            }
+        });
+        StringBuilder report = new StringBuilder("SQL templates by total time:");
+        for (int i = 0; i < all.size() && i < topTemplates; i++) {
+            SqlTemplate t = all.get(i);
+            long count = t.executions.sum();
+            if (count == 0) {
+                break;
+            }
+            long total = t.totalNanos.sum();
+            report.append("\n  count=").append(count)
+                    .append(" totalMs=").append(total / 1000000)
+                    .append(" avgUs=").append(total / count / 1000)
+                    .append(" maxMs=").append(t.maxNanos.get() / 1000000)
+                    .append(" rows=").append(t.rows.sum())
+                    .append(" errors=").append(t.errors.sum());
+            if (!t.errorCodes.isEmpty()) {
+                report.append(" (").append(StatementFailures.describe(t)).append(')');
+            }
+            report.append(" sql=").append(t.sql);
+        }
+        if (RequestBudget.requests.get() > 0) {
+            report.append("\n  requests=").append(RequestBudget.requests.get())
+                    .append(" overBudget=").append(RequestBudget.overBudget.get());
+        }
+        if (OverheadGovernor.INSTANCE.enabled) {
+            report.append("\n  tracing ").append(OverheadGovernor.INSTANCE);
+        }
+        if (JsonLinesWriter.INSTANCE.blocks != null) {
+            report.append("\n  compressed output ").append(JsonLinesWriter.INSTANCE.blocks);
+        }
+        log.info(report.toString());
+    }
+}
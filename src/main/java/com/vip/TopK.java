@@ -0,0 +1,218 @@
+package com.vip;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.SQLXML;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Space-Saving heavy hitters: the k most frequent values of a stream in k counters.
+ *
+ * A value that is not tracked replaces the least frequent counter and inherits its count, so counts are upper
+ * bounds, off by at most {@code error}. Any value more frequent than total / k is guaranteed to be tracked.
+ * Updates take a lock but never wait for it: an update that finds the lock taken is dropped and counted in
+ * {@link #skipped()}, a hot template never makes executing threads queue up behind each other.
+ *
+ * Values are never kept by reference: a tracked value is a boxed primitive, a copy of a date, a String of at most
+ * {@link #MAX_VALUE_CHARS} characters or a {@link Summary} of anything else, so a sketch can't pin a byte[], a LOB
+ * or a stream of the application.
+ */
+final class TopK {
+
+    /**
+     * longest String value kept, longer ones are cut
+     */
+    static final int MAX_VALUE_CHARS = 64;
+
+    private final long[] hashes;
+    private final long[] counts;
+    private final long[] errors;
+    private final Object[] values;
+    private int size;
+    private final LongAdder skipped = new LongAdder();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    TopK(int k) {
+        hashes = new long[k];
+        counts = new long[k];
+        errors = new long[k];
+        values = new Object[k];
+    }
+
+    int capacity() {
+        return hashes.length;
+    }
+
+    /**
+     * @param value raw bind value, only a bounded copy of it is kept
+     */
+    void add(long hash, Object value) {
+        if (!lock.tryLock()) {
+            skipped.increment();
+            return;
+        }
+        try {
+            offer(hash, value, 1, 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Add all counters of another sketch, the result is the Space-Saving summary of both streams.
+     */
+    void merge(TopK other) {
+        for (Entry e : other.entries()) {
+            merge(e);
+        }
+        skipped.add(other.skipped());
+    }
+
+    void merge(Entry entry) {
+        lock.lock();
+        try {
+            offer(entry.hash, entry.value, entry.count, entry.error);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void offer(long hash, Object value, long count, long error) {
+        int min = 0;
+        for (int i = 0; i < size; i++) {
+            if (hashes[i] == hash) {
+                counts[i] += count;
+                errors[i] += error;
+                return;
+            }
+            if (counts[i] < counts[min]) {
+                min = i;
+            }
+        }
+        if (size < hashes.length) {
+            min = size++;
+        } else {
+            error += counts[min];
+            count += counts[min];
+        }
+        hashes[min] = hash;
+        counts[min] = count;
+        errors[min] = error;
+        values[min] = retained(value);
+    }
+
+    /**
+     * @return what is kept of a bind value: small immutable values as they are, a copy or a bounded rendering of the
+     * rest
+     */
+    static Object retained(Object value) {
+        if (value == null || value == PreparedStatementProxy.NULL_ARG || value instanceof Integer
+                || value instanceof Long || value instanceof Short || value instanceof Byte
+                || value instanceof Double || value instanceof Float || value instanceof Boolean
+                || value instanceof Summary) {
+            return value;
+        }
+        if (value instanceof String) {
+            String s = (String) value;
+            return s.length() > MAX_VALUE_CHARS ? s.substring(0, MAX_VALUE_CHARS) : s;
+        }
+        if (value.getClass() == BigDecimal.class && ((BigDecimal) value).precision() <= MAX_VALUE_CHARS) {
+            return value;
+        }
+        if (value instanceof Timestamp) {
+            Timestamp copy = new Timestamp(((Timestamp) value).getTime());
+            copy.setNanos(((Timestamp) value).getNanos());
+            return copy;
+        }
+        if (value instanceof Time) {
+            return new Time(((Time) value).getTime());
+        }
+        if (value instanceof java.sql.Date) {
+            return new java.sql.Date(((java.sql.Date) value).getTime());
+        }
+        if (value instanceof Date) {
+            return new Date(((Date) value).getTime());
+        }
+        if (value instanceof byte[]) {
+            return new Summary("<byte[" + ((byte[]) value).length + "]>");
+        }
+        if (value instanceof Blob || value instanceof Clob || value instanceof SQLXML || value instanceof Array
+                || value instanceof InputStream || value instanceof Reader) {
+            // their toString() or length() may read the value from the database
+            return new Summary("<" + value.getClass().getSimpleName() + ">");
+        }
+        String text = PreparedStatementProxy.safeToString(value);
+        return new Summary(text.length() > MAX_VALUE_CHARS ? text.substring(0, MAX_VALUE_CHARS) : text);
+    }
+
+    long skipped() {
+        return skipped.sum();
+    }
+
+    /**
+     * @return tracked values, most frequent first
+     */
+    List<Entry> entries() {
+        List<Entry> entries = new ArrayList<Entry>(size);
+        lock.lock();
+        try {
+            for (int i = 0; i < size; i++) {
+                entries.add(new Entry(hashes[i], values[i], counts[i], errors[i]));
+            }
+        } finally {
+            lock.unlock();
+        }
+        Collections.sort(entries, new Comparator<Entry>() {
+            @Override
+            public int compare(Entry a, Entry b) {
+                return Long.compare(b.count, a.count);
+            }
+        });
+        return entries;
+    }
+
+    static final class Entry {
+        final long hash;
+        final Object value;
+        final long count;
+        /**
+         * count may overestimate the real frequency by up to this much
+         */
+        final long error;
+
+        Entry(long hash, Object value, long count, long error) {
+            this.hash = hash;
+            this.value = value;
+            this.count = count;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Bounded rendering of a value that is not kept itself, formats as its text.
+     */
+    static final class Summary {
+        private final String text;
+
+        Summary(String text) {
+            this.text = text;
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.vip;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/**
+ * Reads the application's current trace id (and optionally span id) so traced statements can be joined with
+ * request traces.
+ *
+ * The source is configured with either
+ * <ul>
+ * <li>{@code jdbclog.trace.threadLocal=com.foo.Tracing#CURRENT} - a static ThreadLocal field whose value's
+ * toString() is the trace id or a W3C traceparent, or</li>
+ * <li>{@code jdbclog.trace.mdcKey=traceId} (and optionally {@code jdbclog.trace.spanMdcKey=spanId}) - slf4j MDC
+ * keys.</li>
+ * </ul>
+ * The context is read once per execute, never per parameter setter.
+ */
+final class TraceContext {
+
+    private static final Logger log = LoggerFactory.getLogger(TraceContext.class);
+
+    private static final String mdcKey = AgentConfig.getString("trace.mdcKey", null);
+    private static final String spanMdcKey = AgentConfig.getString("trace.spanMdcKey", null);
+    private static volatile ThreadLocal<?> threadLocal;
+    private static volatile boolean threadLocalResolved = AgentConfig.getString("trace.threadLocal", null) == null;
+
+    private static final long INITIAL_RETRY_NANOS = 1000000000L;
+    private static final long MAX_RETRY_NANOS = 60000000000L;
+    private static volatile long nextAttemptNanos = System.nanoTime();
+    // guarded by TraceContext.class
+    private static long retryIntervalNanos = INITIAL_RETRY_NANOS;
+
+    final String traceId;
+    final String parentSpanId;
+
+    private TraceContext(String traceId, String parentSpanId) {
+        this.traceId = traceId;
+        this.parentSpanId = parentSpanId;
+    }
+
+    /**
+     * @return the context of the calling thread, or null when there is none.
+     */
+    static TraceContext current() {
+        String value = null;
+        String span = null;
+        ThreadLocal<?> tl = threadLocal();
+        if (tl != null) {
+            Object v = tl.get();
+            value = v == null ? null : v.toString();
+        } else if (mdcKey != null) {
+            value = MDC.get(mdcKey);
+            span = spanMdcKey == null ? null : MDC.get(spanMdcKey);
+        }
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        // W3C traceparent: 00-<32 hex trace id>-<16 hex span id>-<flags>
+        if (value.length() == 55 && value.charAt(2) == '-' && value.charAt(35) == '-') {
+            return new TraceContext(value.substring(3, 35), value.substring(36, 52));
+        }
+        return new TraceContext(value, span);
+    }
+
+    /**
+     * The ThreadLocal lives in application code that may not be loaded yet when the agent starts, so it is looked
+     * up lazily on first use. It is looked up through the calling thread's context class loader; when that one can't
+     * see the class, e.g. a pool thread started before the web application, the lookup is tried again by later
+     * callers, at most once per retry interval, which doubles from 1 s up to a minute. A field that exists but is not
+     * a static ThreadLocal is a configuration error and not retried.
+     */
+    private static ThreadLocal<?> threadLocal() {
+        if (threadLocalResolved) {
+            return threadLocal;
+        }
+        long now = System.nanoTime();
+        if (now - nextAttemptNanos < 0) {
+            return null;
+        }
+        synchronized (TraceContext.class) {
+            if (threadLocalResolved || now - nextAttemptNanos < 0) {
+                return threadLocal;
+            }
+            String spec = AgentConfig.getString("trace.threadLocal", null);
+            int hash = spec.indexOf('#');
+            try {
+                if (hash <= 0) {
+                    throw new IllegalArgumentException("expected class#field");
+                }
+                ClassLoader loader = Thread.currentThread().getContextClassLoader();
+                Class<?> holder = Class.forName(spec.substring(0, hash), true,
+                        loader != null ? loader : TraceContext.class.getClassLoader());
+                Field field = holder.getDeclaredField(spec.substring(hash + 1));
+                if (!Modifier.isStatic(field.getModifiers())
+                        || !ThreadLocal.class.isAssignableFrom(field.getType())) {
+                    throw new IllegalArgumentException(spec + " is not a static ThreadLocal field");
+                }
+                field.setAccessible(true);
+                threadLocal = (ThreadLocal<?>) field.get(null);
+                threadLocalResolved = true;
+            } catch (ClassNotFoundException | NoClassDefFoundError e) {
+                if (retryIntervalNanos == INITIAL_RETRY_NANOS) {
+                    log.warn("cannot resolve trace ThreadLocal " + spec + " yet, retrying with later callers: " + e);
+                }
+                nextAttemptNanos = now + retryIntervalNanos;
+                retryIntervalNanos = Math.min(retryIntervalNanos * 2, MAX_RETRY_NANOS);
+            } catch (Exception e) {
+                log.warn("cannot resolve trace ThreadLocal " + spec + ": " + e);
+                threadLocalResolved = true;
+            }
+            return threadLocal;
+        }
+    }
+}
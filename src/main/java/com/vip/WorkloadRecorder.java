@@ -0,0 +1,331 @@
+package com.vip;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records executed statements - SQL, bind values, start offset, connection and thread - into a capture file that
+ * {@link WorkloadReplayer} can play back against another database.
+ *
+ * Enabled with {@code jdbclog.capture.file=/path/workload.cap}. The executing thread copies its bind values into a
+ * small event and offers it to a bounded queue, a daemon thread writes the file; events are dropped and counted
+ * when the writer can't keep up. A shutdown hook writes what is still queued and closes the file.
+ *
+ * File layout, all big endian: magic "JLCAP", int version, long capture start (epoch millis), then records:
+ * <pre>
+ *   'S' int sqlId, string sql                       - SQL text, written before its first use
+ *   'E' long offsetNanos, long connectionId, long threadId, int sqlId, byte method, int argCount, args...
+ * </pre>
+ * Strings are int length + UTF-8. Each arg is a type byte followed by its value. Connection ids are handed out in
+ * order of first use and never reused. The writer remembers {@code jdbclog.capture.maxSqlIds} SQL strings; when
+ * plain statements with inline literals fill that table it is cleared and SQL is written again under a new id.
+ */
+final class WorkloadRecorder {
+
+    private static final Logger log = LoggerFactory.getLogger(WorkloadRecorder.class);
+
+    static final byte[] MAGIC = {'J', 'L', 'C', 'A', 'P'};
+    static final int VERSION = 1;
+
+    static final byte RECORD_SQL = 'S';
+    static final byte RECORD_EXECUTION = 'E';
+
+    static final byte METHOD_EXECUTE = 0;
+    static final byte METHOD_QUERY = 1;
+    static final byte METHOD_UPDATE = 2;
+
+    // bind value types
+    static final byte T_UNSET = 0;
+    static final byte T_NULL = 1;
+    static final byte T_INT = 2;
+    static final byte T_LONG = 3;
+    static final byte T_FLOAT = 4;
+    static final byte T_DOUBLE = 5;
+    static final byte T_BOOLEAN = 6;
+    static final byte T_STRING = 7;
+    static final byte T_DATE = 8;
+    static final byte T_TIME = 9;
+    static final byte T_TIMESTAMP = 10;
+    static final byte T_DECIMAL = 11;
+    /**
+     * any other value, only its toString() survives
+     */
+    static final byte T_OTHER = 12;
+
+    static final WorkloadRecorder INSTANCE = new WorkloadRecorder(
+            AgentConfig.getString("capture.file", null),
+            AgentConfig.getInt("capture.queueSize", 65536));
+
+    private static final int maxSqlIds = AgentConfig.getInt("capture.maxSqlIds", 10000);
+
+    final boolean enabled;
+    private final String path;
+    private final BlockingQueue<Execution> queue;
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Map<Connection, Long> connectionIds = new WeakHashMap<Connection, Long>();
+    private long lastConnectionId;
+    // set by the shutdown hook, the writer then drains the queue and closes the file
+    private volatile boolean closing;
+    private final CountDownLatch closed = new CountDownLatch(1);
+    // SQL already written, only used by the writer thread
+    private final Map<String, Integer> sqlIds = new HashMap<String, Integer>();
+    private int nextSqlId;
+
+    private WorkloadRecorder(String path, int queueSize) {
+        this.enabled = path != null;
+        this.path = path;
+        this.queue = new ArrayBlockingQueue<Execution>(Math.max(1, queueSize));
+        if (enabled) {
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    write();
+                }
+            }, "jdbc-log-workload-recorder");
+            writer.setDaemon(true);
+            writer.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    close(5000);
+                }
+            }, "jdbc-log-workload-recorder-final"));
+        }
+    }
+
+    /**
+     * Write what is queued and close the file, waiting at most timeoutMillis for the writer.
+     */
+    void close(long timeoutMillis) {
+        closing = true;
+        try {
+            closed.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Id of a connection, resolved once per prepared statement. Unlike an identity hash it is unique for the
+     * lifetime of the capture, a closed and collected connection's id is not given to a new one.
+     */
+    long connectionId(Connection connection) {
+        if (connection == null) {
+            return 0;
+        }
+        synchronized (connectionIds) {
+            Long id = connectionIds.get(connection);
+            if (id == null) {
+                id = ++lastConnectionId;
+                connectionIds.put(connection, id);
+            }
+            return id;
+        }
+    }
+
+    /**
+     * Queue one execution, never blocks.
+     *
+     * @param startNanos   System.nanoTime() when the statement started
+     * @param connectionId identifies the connection the statement ran on
+     * @param operation    JDBC method, e.g. executeQuery
+     * @param args         raw bind variables, copied here
+     */
+    void record(long startNanos, long connectionId, String sql, String operation, Object[] args, int argCount) {
+        byte method = "executeQuery".equals(operation) ? METHOD_QUERY
+                : "execute".equals(operation) ? METHOD_EXECUTE : METHOD_UPDATE;
+        Execution execution = new Execution(startNanos - this.startNanos, connectionId,
+                Thread.currentThread().getId(), sql, method, Arrays.copyOf(args, argCount));
+        if (!queue.offer(execution)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void write() {
+        List<Execution> batch = new ArrayList<Execution>();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 65536))) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            while (!closing) {
+                Execution first = queue.poll(1, TimeUnit.SECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                    write(out, batch);
+                    batch.clear();
+                }
+                out.flush();
+                long lost = dropped.getAndSet(0);
+                if (lost > 0) {
+                    log.warn("workload capture queue full, dropped " + lost + " executions");
+                }
+            }
+            queue.drainTo(batch);
+            write(out, batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.warn("workload capture to " + path + " stopped: " + e);
+        } finally {
+            closed.countDown();
+        }
+    }
+
+    private void write(DataOutputStream out, List<Execution> batch) throws IOException {
+        for (Execution e : batch) {
+            Integer sqlId = sqlIds.get(e.sql);
+            if (sqlId == null) {
+                if (sqlIds.size() >= maxSqlIds) {
+                    sqlIds.clear();
+                }
+                sqlId = nextSqlId++;
+                sqlIds.put(e.sql, sqlId);
+                out.writeByte(RECORD_SQL);
+                out.writeInt(sqlId);
+                writeString(out, e.sql);
+            }
+            out.writeByte(RECORD_EXECUTION);
+            out.writeLong(e.offsetNanos);
+            out.writeLong(e.connectionId);
+            out.writeLong(e.threadId);
+            out.writeInt(sqlId);
+            out.writeByte(e.method);
+            out.writeInt(e.args.length);
+            for (Object arg : e.args) {
+                writeValue(out, arg);
+            }
+        }
+    }
+
+    static void writeValue(DataOutputStream out, Object arg) throws IOException {
+        if (arg == null) {
+            out.writeByte(T_UNSET);
+        } else if (arg == PreparedStatementProxy.NULL_ARG) {
+            out.writeByte(T_NULL);
+        } else if (arg instanceof Integer || arg instanceof Short || arg instanceof Byte) {
+            out.writeByte(T_INT);
+            out.writeInt(((Number) arg).intValue());
+        } else if (arg instanceof Long) {
+            out.writeByte(T_LONG);
+            out.writeLong((Long) arg);
+        } else if (arg instanceof Float) {
+            out.writeByte(T_FLOAT);
+            out.writeFloat((Float) arg);
+        } else if (arg instanceof Double) {
+            out.writeByte(T_DOUBLE);
+            out.writeDouble((Double) arg);
+        } else if (arg instanceof Boolean) {
+            out.writeByte(T_BOOLEAN);
+            out.writeBoolean((Boolean) arg);
+        } else if (arg instanceof String) {
+            out.writeByte(T_STRING);
+            writeString(out, (String) arg);
+        } else if (arg instanceof Date) {
+            out.writeByte(T_DATE);
+            out.writeLong(((Date) arg).getTime());
+        } else if (arg instanceof Time) {
+            out.writeByte(T_TIME);
+            out.writeLong(((Time) arg).getTime());
+        } else if (arg instanceof Timestamp) {
+            out.writeByte(T_TIMESTAMP);
+            out.writeLong(((Timestamp) arg).getTime());
+            out.writeInt(((Timestamp) arg).getNanos());
+        } else if (arg instanceof BigDecimal) {
+            out.writeByte(T_DECIMAL);
+            writeString(out, arg.toString());
+        } else {
+            out.writeByte(T_OTHER);
+            writeString(out, PreparedStatementProxy.safeToString(arg));
+        }
+    }
+
+    static Object readValue(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case T_UNSET:
+                return null;
+            case T_NULL:
+                return PreparedStatementProxy.NULL_ARG;
+            case T_INT:
+                return in.readInt();
+            case T_LONG:
+                return in.readLong();
+            case T_FLOAT:
+                return in.readFloat();
+            case T_DOUBLE:
+                return in.readDouble();
+            case T_BOOLEAN:
+                return in.readBoolean();
+            case T_STRING:
+            case T_OTHER:
+                return readString(in);
+            case T_DATE:
+                return new Date(in.readLong());
+            case T_TIME:
+                return new Time(in.readLong());
+            case T_TIMESTAMP:
+                Timestamp ts = new Timestamp(in.readLong());
+                ts.setNanos(in.readInt());
+                return ts;
+            case T_DECIMAL:
+                return new BigDecimal(readString(in));
+            default:
+                throw new IOException("unknown value type " + type);
+        }
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Execution {
+        final long offsetNanos;
+        final long connectionId;
+        final long threadId;
+        final String sql;
+        final byte method;
+        final Object[] args;
+
+        Execution(long offsetNanos, long connectionId, long threadId, String sql, byte method, Object[] args) {
+            this.offsetNanos = offsetNanos;
+            this.connectionId = connectionId;
+            this.threadId = threadId;
+            this.sql = sql;
+            this.method = method;
+            this.args = args;
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package com.vip;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a capture file written by {@link WorkloadRecorder} against a JDBC URL.
+ *
+ * Every captured connection gets its own replay thread and connection, so statements of one connection run in
+ * their original order while connections run concurrently, as they did in production. Statements are started at
+ * their captured offset divided by the speed factor ({@code --speed 0} replays as fast as possible).
+ *
+ * <pre>
+ * java -cp jdbc-log-agent.jar:driver.jar com.vip.WorkloadReplayer workload.cap jdbc:mysql://host/db \
+ *      [--user u] [--password p] [--speed 10] [--driver com.mysql.jdbc.Driver]
+ * </pre>
+ * At the end latency percentiles are printed overall and for the slowest SQL.
+ */
+public class WorkloadReplayer {
+
+    // prepared statements kept open per replay connection, like a driver's statement cache
+    private static final int MAX_STATEMENTS = 100;
+    // replay errors printed to stderr, the rest are only counted
+    private static final int MAX_PRINTED_ERRORS = 20;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final double speed;
+
+    private final LatencyHistogram overall = new LatencyHistogram();
+    private final ConcurrentMap<String, LatencyHistogram> perSql = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong printedErrors = new AtomicLong();
+
+    WorkloadReplayer(String url, String user, String password, double speed) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.speed = speed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("usage: WorkloadReplayer <capture file> <jdbc url> [--user u] [--password p]"
+                    + " [--speed factor] [--driver class]");
+            System.exit(2);
+        }
+        String user = null;
+        String password = null;
+        double speed = 1.0;
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            if ("--user".equals(args[i])) {
+                user = args[i + 1];
+            } else if ("--password".equals(args[i])) {
+                password = args[i + 1];
+            } else if ("--speed".equals(args[i])) {
+                speed = Double.parseDouble(args[i + 1]);
+            } else if ("--driver".equals(args[i])) {
+                Class.forName(args[i + 1]);
+            } else {
+                throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        WorkloadReplayer replayer = new WorkloadReplayer(args[1], user, password, speed);
+        Map<Long, List<Execution>> connections = read(args[0]);
+        replayer.replay(connections);
+        replayer.report(System.out);
+    }
+
+    /**
+     * @return captured executions grouped by connection, each list in start order
+     */
+    static Map<Long, List<Execution>> read(String file) throws IOException {
+        Map<Integer, String> sqlById = new HashMap<Integer, String>();
+        Map<Long, List<Execution>> connections = new LinkedHashMap<Long, List<Execution>>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536))) {
+            byte[] magic = new byte[WorkloadRecorder.MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, WorkloadRecorder.MAGIC)) {
+                throw new IOException(file + " is not a workload capture file");
+            }
+            int version = in.readInt();
+            if (version != WorkloadRecorder.VERSION) {
+                throw new IOException("unsupported capture version " + version);
+            }
+            in.readLong();
+            while (true) {
+                int kind;
+                try {
+                    kind = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    if (kind == WorkloadRecorder.RECORD_SQL) {
+                        sqlById.put(in.readInt(), WorkloadRecorder.readString(in));
+                    } else if (kind == WorkloadRecorder.RECORD_EXECUTION) {
+                        long offset = in.readLong();
+                        long connectionId = in.readLong();
+                        in.readLong();
+                        String sql = sqlById.get(in.readInt());
+                        byte method = in.readByte();
+                        Object[] args = new Object[in.readInt()];
+                        for (int i = 0; i < args.length; i++) {
+                            args[i] = WorkloadRecorder.readValue(in);
+                        }
+                        List<Execution> executions = connections.get(connectionId);
+                        if (executions == null) {
+                            executions = new ArrayList<Execution>();
+                            connections.put(connectionId, executions);
+                        }
+                        executions.add(new Execution(offset, sql, method, args));
+                    } else {
+                        throw new IOException("corrupt capture file, unknown record " + kind);
+                    }
+                } catch (EOFException e) {
+                    // the recorder was killed in the middle of a record
+                    break;
+                }
+            }
+        }
+        for (List<Execution> executions : connections.values()) {
+            Collections.sort(executions, new Comparator<Execution>() {
+                @Override
+                public int compare(Execution a, Execution b) {
+                    return Long.compare(a.offsetNanos, b.offsetNanos);
+                }
+            });
+        }
+        return connections;
+    }
+
+    void replay(Map<Long, List<Execution>> connections) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(connections.size());
+        long firstOffset = Long.MAX_VALUE;
+        for (List<Execution> executions : connections.values()) {
+            firstOffset = Math.min(firstOffset, executions.get(0).offsetNanos);
+        }
+        final long start = System.nanoTime();
+        final long base = firstOffset;
+        int n = 0;
+        for (final List<Execution> executions : connections.values()) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        replayConnection(executions, start, base);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "replay-connection-" + n++);
+            worker.start();
+        }
+        done.await();
+    }
+
+    /**
+     * @param start      replay start, System.nanoTime()
+     * @param baseOffset capture offset of the first statement of the whole workload
+     */
+    private void replayConnection(List<Execution> executions, long start, long baseOffset) {
+        int replayed = 0;
+        try (Connection connection = user == null
+                ? DriverManager.getConnection(url) : DriverManager.getConnection(url, user, password)) {
+            Map<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() <= MAX_STATEMENTS) {
+                        return false;
+                    }
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+            };
+            try {
+                for (Execution execution : executions) {
+                    replayed++;
+                    if (speed > 0) {
+                        long due = start + (long) ((execution.offsetNanos - baseOffset) / speed);
+                        long wait;
+                        while ((wait = due - System.nanoTime()) > 0) {
+                            LockSupport.parkNanos(wait);
+                        }
+                    }
+                    if (execution.sql == null) {
+                        // its 'S' record is missing from the capture
+                        error(execution, "no SQL in the capture");
+                        continue;
+                    }
+                    long begin = System.nanoTime();
+                    try {
+                        PreparedStatement statement = statements.get(execution.sql);
+                        if (statement == null) {
+                            statement = connection.prepareStatement(execution.sql);
+                            statements.put(execution.sql, statement);
+                        }
+                        run(statement, execution);
+                    } catch (SQLException | RuntimeException e) {
+                        error(execution, e.toString());
+                    }
+                    long latency = System.nanoTime() - begin;
+                    overall.record(latency);
+                    LatencyHistogram histogram = perSql.get(execution.sql);
+                    if (histogram == null) {
+                        perSql.putIfAbsent(execution.sql, new LatencyHistogram());
+                        histogram = perSql.get(execution.sql);
+                    }
+                    histogram.record(latency);
+                }
+            } finally {
+                for (PreparedStatement statement : statements.values()) {
+                    closeQuietly(statement);
+                }
+            }
+        } catch (SQLException | RuntimeException e) {
+            System.err.println("replay connection failed: " + e);
+            errors.addAndGet(executions.size() - replayed);
+        }
+    }
+
+    private void error(Execution execution, String message) {
+        errors.incrementAndGet();
+        if (printedErrors.incrementAndGet() <= MAX_PRINTED_ERRORS) {
+            System.err.println("replay error: " + message + " sql=" + execution.sql);
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException | RuntimeException e) {
+            // the statement is gone either way
+        }
+    }
+
+    private static void run(PreparedStatement statement, Execution execution) throws SQLException {
+        statement.clearParameters();
+        for (int i = 0; i < execution.args.length; i++) {
+            bind(statement, i + 1, execution.args[i]);
+        }
+        if (execution.method == WorkloadRecorder.METHOD_QUERY) {
+            ResultSet rs = statement.executeQuery();
+            try {
+                while (rs.next()) {
+                    // fetch the rows, as the application did
+                }
+            } finally {
+                rs.close();
+            }
+        } else if (execution.method == WorkloadRecorder.METHOD_UPDATE) {
+            statement.executeUpdate();
+        } else {
+            statement.execute();
+        }
+    }
+
+    private static void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+        if (value == null) {
+            // never bound in the capture
+            return;
+        }
+        if (value == PreparedStatementProxy.NULL_ARG) {
+            statement.setNull(index, Types.NULL);
+        } else if (value instanceof Integer) {
+            statement.setInt(index, (Integer) value);
+        } else if (value instanceof Long) {
+            statement.setLong(index, (Long) value);
+        } else if (value instanceof Float) {
+            statement.setFloat(index, (Float) value);
+        } else if (value instanceof Double) {
+            statement.setDouble(index, (Double) value);
+        } else if (value instanceof Boolean) {
+            statement.setBoolean(index, (Boolean) value);
+        } else if (value instanceof Date) {
+            statement.setDate(index, (Date) value);
+        } else if (value instanceof Time) {
+            statement.setTime(index, (Time) value);
+        } else if (value instanceof Timestamp) {
+            statement.setTimestamp(index, (Timestamp) value);
+        } else if (value instanceof BigDecimal) {
+            statement.setBigDecimal(index, (BigDecimal) value);
+        } else {
+            statement.setString(index, value.toString());
+        }
+    }
+
+    void report(PrintStream out) {
+        out.println("replayed " + overall.summary() + " errors=" + errors.get());
+        if (printedErrors.get() > MAX_PRINTED_ERRORS) {
+            out.println("  " + (printedErrors.get() - MAX_PRINTED_ERRORS) + " more errors not printed");
+        }
+        List<Map.Entry<String, LatencyHistogram>> entries =
+                new ArrayList<Map.Entry<String, LatencyHistogram>>(perSql.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<String, LatencyHistogram>>() {
+            @Override
+            public int compare(Map.Entry<String, LatencyHistogram> a, Map.Entry<String, LatencyHistogram> b) {
+                return Long.compare(b.getValue().percentile(0.99), a.getValue().percentile(0.99));
+            }
+        });
+        for (int i = 0; i < entries.size() && i < 20; i++) {
+            out.println("  " + entries.get(i).getValue().summary() + " sql=" + entries.get(i).getKey());
+        }
+    }
+
+    static final class Execution {
+        final long offsetNanos;
+        final String sql;
+        final byte method;
+        final Object[] args;
+
+        Execution(long offsetNanos, String sql, byte method, Object[] args) {
+            this.offsetNanos = offsetNanos;
+            this.sql = sql;
+            this.method = method;
+            this.args = args;
+        }
+    }
+}
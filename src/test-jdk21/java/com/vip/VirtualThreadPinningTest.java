@@ -0,0 +1,134 @@
+package com.vip;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Binds and executes on 10k virtual threads must not pin their carrier: the driver stub parks inside every execute,
+ * as a real driver does waiting for the server, so a monitor held by the agent around the call shows up as a
+ * jdk.VirtualThreadPinned event.
+ *
+ * Scope: this is a regression guard for the proxy's bind and execute path, it fails once a synchronized block or
+ * method around the driver call comes back. It doesn't tell anything about the code before the proxy stopped using
+ * monitors: that code held them only while formatting, never while the driver parked, and passes as well.
+ * {@link #pinningThroughTheProxyIsDetected} shows that the same path does report pinning once a monitor is held
+ * around it.
+ */
+class VirtualThreadPinningTest {
+
+    private static final int THREADS = 10_000;
+
+    @Test
+    void bindAndExecuteDoNotPin() throws Exception {
+        List<RecordedEvent> pinned = recordPinned(THREADS, VirtualThreadPinningTest::bindAndExecute);
+        assertEquals(0, pinned.size(), pinned.isEmpty() ? null : "pinned: " + pinned.get(0));
+    }
+
+    /**
+     * The recording does see pinning when there is some; from JDK 24 on monitors don't pin any more.
+     */
+    @Test
+    void pinningIsDetected() throws Exception {
+        assumeTrue(Runtime.version().feature() < 24);
+        Object monitor = new Object();
+        List<RecordedEvent> pinned = recordPinned(100, () -> {
+            synchronized (monitor) {
+                LockSupport.parkNanos(1_000_000);
+            }
+        });
+        assertFalse(pinned.isEmpty());
+    }
+
+    /**
+     * The proxy's bind and execute path under a monitor, as it would run if the proxy synchronized around the driver
+     * call: the park in the driver's execute must be reported.
+     */
+    @Test
+    void pinningThroughTheProxyIsDetected() throws Exception {
+        assumeTrue(Runtime.version().feature() < 24);
+        List<RecordedEvent> pinned = recordPinned(100, () -> {
+            synchronized (new Object()) {
+                bindAndExecute();
+            }
+        });
+        assertFalse(pinned.isEmpty());
+    }
+
+    private static void bindAndExecute() {
+        PreparedStatement statement = new PreparedStatementProxy(
+                "select * from orders where customer_id = ? and status = ?", driverStatement());
+        try {
+            for (int i = 0; i < 3; i++) {
+                statement.setLong(1, i);
+                statement.setString(2, "OPEN");
+                statement.executeQuery();
+                statement.clearParameters();
+                statement.setLong(1, i);
+                statement.setString(2, "PAID");
+                statement.executeUpdate();
+            }
+            statement.close();
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static PreparedStatement driverStatement() {
+        return (PreparedStatement) Proxy.newProxyInstance(VirtualThreadPinningTest.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                    if (method.getName().startsWith("execute")) {
+                        // waiting for the server
+                        LockSupport.parkNanos(100_000);
+                    }
+                    if (method.getReturnType() == int.class) {
+                        return 1;
+                    } else if (method.getReturnType() == long.class) {
+                        return 1L;
+                    } else if (method.getReturnType() == boolean.class) {
+                        return false;
+                    }
+                    return null;
+                });
+    }
+
+    private static List<RecordedEvent> recordPinned(int threads, Runnable work) throws Exception {
+        Path file = Files.createTempFile("pinning", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO).withStackTrace();
+            recording.start();
+            List<Future<?>> done = new ArrayList<Future<?>>();
+            try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (int i = 0; i < threads; i++) {
+                    done.add(executor.submit(work));
+                }
+            }
+            recording.stop();
+            for (Future<?> f : done) {
+                // rethrows a failure of the work itself
+                f.get();
+            }
+            recording.dump(file);
+            return RecordingFile.readAllEvents(file);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}